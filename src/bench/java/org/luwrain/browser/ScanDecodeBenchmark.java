@@ -0,0 +1,108 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.browser;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * Decoding of the data given by the injection through the bridge: the
+ * delta of the rescan and the string table with attributes. The data is
+ * prepared in the same format as the injection makes it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanDecodeBenchmark
+{
+    static private final int RECORD_LEN = 8;
+
+    @Param({"1000", "10000", "100000"})
+    public int nodeCount;
+
+    private String delta;
+    private String attrs;
+
+    @Setup public void setup()
+    {
+	final Random random = new Random(nodeCount);
+	final StringBuilder b = new StringBuilder();
+	//The header: epoch, seq, full, timings and no removed nodes, then the added and changed counts
+	b.append("1,1,1,10,20,0,").append(nodeCount).append(",0");
+	for(int i = 0;i < nodeCount;i++)
+	{
+	    b.append(",").append(i).append(",").append(i > 0?random.nextInt(i):-1).append(",").append(i - 1);
+	    b.append(",").append(random.nextInt(1000)).append(",").append(20 * i).append(",").append(random.nextInt(800)).append(",20");
+	    b.append(",").append(random.nextInt());
+	}
+	this.delta = new String(b);
+	//The string table of attributes: about ten distinct names and many distinct values
+	final List<String> strings = new ArrayList<>();
+	final StringBuilder numbers = new StringBuilder();
+	for(int i = 0;i < 10;i++)
+	    strings.add("attr" + i);
+	for(int i = 0;i < nodeCount;i++)
+	{
+	    final int count = random.nextInt(3);
+	    numbers.append(numbers.length() > 0?",":"").append(count);
+	    for(int j = 0;j < count;j++)
+	    {
+		strings.add("value\\n" + i + "_" + j);
+		numbers.append(",").append(random.nextInt(10)).append(",").append(strings.size() - 1);
+	    }
+	}
+	final StringBuilder t = new StringBuilder();
+	t.append(strings.size());
+	for(String s: strings)
+	    t.append("\n").append(s);
+	t.append("\n").append(numbers);
+	this.attrs = new String(t);
+    }
+
+    @Benchmark public long decodeDelta()
+    {
+	final PackedReader packed = new PackedReader(delta);
+	long sum = packed.nextLong() + packed.nextLong() + packed.nextInt() + packed.nextLong() + packed.nextLong();
+	final int removedCount = packed.nextInt();
+	for(int i = 0;i < removedCount;i++)
+	    sum += packed.nextInt();
+	final int count = packed.nextInt() + packed.nextInt();
+	for(int i = 0;i < count * RECORD_LEN;i++)
+	    sum += packed.nextInt();
+	return sum;
+    }
+
+    @Benchmark public void decodeAttrs(Blackhole bh)
+    {
+	final PackedStrings strings = new PackedStrings(attrs);
+	final PackedReader packed = strings.getNumbers();
+	for(int i = 0;i < nodeCount;i++)
+	{
+	    final int count = packed.nextInt();
+	    final String[] items = new String[count * 2];
+	    for(int j = 0;j < items.length;j++)
+		items[j] = strings.get(packed.nextInt());
+	    bh.consume(new AttrMap(items));
+	}
+    }
+}
@@ -0,0 +1,101 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.controls.web;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+import org.luwrain.browser.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentItemBenchmark
+{
+    static private final TreeItem TREE_ITEM = new TreeItem(){
+	    @Override public TreeItem getParentItem()
+	    {
+		return null;
+	    }
+	    @Override public TreeItem[] getChildren()
+	    {
+		return new TreeItem[0];
+	    }
+	    @Override public Map<String, String> getItemAttrs()
+	    {
+		return new HashMap<>();
+	    }
+	};
+
+    private String[] texts;
+    //Paragraphs and the content nodes inside them
+    private PageSnapshot.Node[] paras;
+    private PageSnapshot.Node[][] content;
+
+    @Setup public void setup() throws Exception
+    {
+	final PageSnapshot snapshot = Corpus.load(Corpus.Profile.ARTICLE, 10000);
+	//The texts of the snapshot are normalized already, taking raw ones
+	this.texts = Corpus.generateTexts(snapshot.getNodeCount(), 20);
+	final Map<Integer, List<PageSnapshot.Node>> content = new LinkedHashMap<>();
+	for(int pos: snapshot.getOrder())
+	{
+	    final PageSnapshot.Node node = snapshot.get(pos);
+	    if (!node.content || !node.visible)
+		continue;
+	    final PageSnapshot.Node parent = snapshot.get(node.parentPos);
+	    if (parent != null && !parent.content)
+	    {
+		if (!content.containsKey(parent.pos))
+		    content.put(parent.pos, new ArrayList<>());
+		content.get(parent.pos).add(node);
+	    }
+	}
+	this.paras = new PageSnapshot.Node[content.size()];
+	this.content = new PageSnapshot.Node[content.size()][];
+	int k = 0;
+	for(Map.Entry<Integer, List<PageSnapshot.Node>> e: content.entrySet())
+	{
+	    paras[k] = snapshot.get(e.getKey().intValue());
+	    this.content[k] = e.getValue().toArray(new PageSnapshot.Node[e.getValue().size()]);
+	    k++;
+	}
+    }
+
+    @Benchmark public void normalizeText(Blackhole bh)
+    {
+	for(String t: texts)
+	    bh.consume(TextNormalizer.DEFAULT.normalize(t));
+    }
+
+    @Benchmark public void containers(Blackhole bh)
+    {
+	for(int i = 0;i < paras.length;i++)
+	{
+	    final ContentItem[] items = new ContentItem[content[i].length];
+	    for(int j = 0;j < items.length;j++)
+		items[j] = new ContentItem(content[i][j], new ContentItem[0], "");
+	    bh.consume(new Container(paras[i], TREE_ITEM, items));
+	}
+    }
+}
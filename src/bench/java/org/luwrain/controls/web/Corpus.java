@@ -0,0 +1,232 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.controls.web;
+
+import java.util.*;
+import java.io.*;
+import java.awt.Rectangle;
+
+import org.luwrain.core.*;
+import org.luwrain.browser.*;
+
+/**
+ * The corpus of pages for benchmarks. Pages are generated with fixed
+ * seeds, so every run measures the same pages. The corpus directory may
+ * be given with the luwrain.bench.corpus system property: the pages are
+ * read from it if they are there, so recorded snapshots of real pages
+ * may be put there under the names of the generated ones.
+ */
+final class Corpus
+{
+    static final String CORPUS_PROPERTY = "luwrain.bench.corpus";
+
+    enum Profile {
+	//Paragraphs of text with inline links and emphasis
+	ARTICLE,
+	//Long lists of links, like menus and search results
+	LISTING,
+	//Inputs and buttons in many small containers
+	FORM};
+
+    static final String[] WORDS = {"the", "browser", "reads", "page", "with", "links", "and", "text", "of", "many", "nodes", "which", "are", "built", "into", "containers"};
+
+    private final Random random;
+    private final List<PageSnapshot.Node> nodes = new ArrayList<>();
+    private int y = 0;
+
+    private Corpus(long seed)
+    {
+	this.random = new Random(seed);
+    }
+
+    static PageSnapshot load(Profile profile, int nodeCount) throws IOException
+    {
+	NullCheck.notNull(profile, "profile");
+	final String dir = System.getProperty(CORPUS_PROPERTY);
+	if (dir != null && !dir.isEmpty())
+	{
+	    final File file = new File(dir, getFileName(profile, nodeCount));
+	    if (file.exists())
+		return SnapshotReader.read(file);
+	}
+	return generate(profile, nodeCount);
+    }
+
+    //Texts with the whitespace of real pages, not normalized
+    static String[] generateTexts(int count, int wordCount)
+    {
+	final Corpus c = new Corpus(count);
+	final String[] res = new String[count];
+	for(int i = 0;i < count;i++)
+	    res[i] = c.makeText(wordCount);
+	return res;
+    }
+
+    static String getFileName(Profile profile, int nodeCount)
+    {
+	return profile.name().toLowerCase() + "-" + nodeCount + ".snapshot";
+    }
+
+    static PageSnapshot generate(Profile profile, int nodeCount)
+    {
+	NullCheck.notNull(profile, "profile");
+	final Corpus c = new Corpus(profile.ordinal() * 1000003L + nodeCount);
+	final int html = c.add(-1, NodeKind.OTHER, "html", null);
+	final int body = c.add(html, NodeKind.OTHER, "body", null);
+	while(c.nodes.size() < nodeCount)
+	{
+	    //Some levels of wrapping elements, as on most real pages
+	    int parent = body;
+	    for(int i = c.random.nextInt(4);i > 0;i--)
+		parent = c.add(parent, NodeKind.OTHER, "div", null);
+	    switch(profile)
+	    {
+	    case ARTICLE:
+		c.addParagraph(parent);
+		break;
+	    case LISTING:
+		c.addList(parent);
+		break;
+	    case FORM:
+		c.addForm(parent);
+		break;
+	    }
+	}
+	return new PageSnapshot(c.nodes.toArray(new PageSnapshot.Node[c.nodes.size()]));
+    }
+
+    private void addParagraph(int parent)
+    {
+	final int p = add(parent, NodeKind.PARAGRAPH, "p", nextRect(600));
+	for(int i = 1 + random.nextInt(5);i > 0;i--)
+	    switch(random.nextInt(4))
+	    {
+	    case 0:
+		{
+		    final int a = addContent(p, NodeKind.ANCHOR, "a", "", attr("href", "http://luwrain.org/" + random.nextInt(1000)));
+		    addContent(a, NodeKind.TEXT, "", makeText(3), attr());
+		    break;
+		}
+	    case 1:
+		{
+		    final int em = addContent(p, NodeKind.ELEMENT, "em", "", attr());
+		    addContent(em, NodeKind.TEXT, "", makeText(2), attr());
+		    break;
+		}
+	    default:
+		addContent(p, NodeKind.TEXT, "", makeText(20), attr());
+	    }
+    }
+
+    private void addList(int parent)
+    {
+	final int ul = add(parent, NodeKind.OTHER, "ul", nextRect(600));
+	for(int i = 1 + random.nextInt(20);i > 0;i--)
+	{
+	    final int li = add(ul, NodeKind.LIST_ITEM, "li", nextRect(600));
+	    final int a = addContent(li, NodeKind.ANCHOR, "a", "", attr("href", "/item/" + random.nextInt(100000), "class", "item-link"));
+	    addContent(a, NodeKind.TEXT, "", makeText(4), attr());
+	}
+    }
+
+    private void addForm(int parent)
+    {
+	final int form = add(parent, NodeKind.OTHER, "form", nextRect(600));
+	for(int i = 1 + random.nextInt(4);i > 0;i--)
+	{
+	    final int label = add(form, NodeKind.OTHER, "label", nextRect(300));
+	    addContent(label, NodeKind.TEXT, "", makeText(2), attr());
+	    addContent(label, NodeKind.INPUT, "input", "", attr("type", "text", "name", "field" + i));
+	}
+	addContent(form, NodeKind.BUTTON, "button", "", attr("aria-label", makeText(1)));
+    }
+
+    private int add(int parent, NodeKind kind, String tagName, Rectangle rect)
+    {
+	final int pos = nodes.size();
+	nodes.add(new PageSnapshot.Node(null, pos, parent, kind, tagName, attr(), false, false, "", rect));
+	return pos;
+    }
+
+    //Every tenth content node is hidden
+    private int addContent(int parent, NodeKind kind, String tagName, String text, Map<String, String> attrs)
+    {
+	final int pos = nodes.size();
+	final boolean visible = random.nextInt(10) != 0;
+	//Snapshots keep the texts normalized, as PageSnapshot.take() does
+	nodes.add(new PageSnapshot.Node(null, pos, parent, kind, tagName, attrs, true, visible, TextNormalizer.DEFAULT.normalize(text), visible?nextRect(100):null));
+	return pos;
+    }
+
+    private Rectangle nextRect(int width)
+    {
+	y += 20;
+	return new Rectangle(0, y, width, 20);
+    }
+
+    //Words with the whitespace of real pages: double spaces, line breaks and tabs
+    private String makeText(int wordCount)
+    {
+	final StringBuilder b = new StringBuilder();
+	for(int i = 0;i < wordCount;i++)
+	{
+	    switch(random.nextInt(8))
+	    {
+	    case 0:
+		b.append("  ");
+		break;
+	    case 1:
+		b.append("\n\t");
+		break;
+	    default:
+		b.append(" ");
+	    }
+	    b.append(WORDS[random.nextInt(WORDS.length)]);
+	}
+	return new String(b);
+    }
+
+    static private Map<String, String> attr(String... items)
+    {
+	final Map<String, String> res = new LinkedHashMap<>();
+	for(int i = 0;i + 1 < items.length;i += 2)
+	    res.put(items[i], items[i + 1]);
+	return Collections.unmodifiableMap(res);
+    }
+
+    /**
+     * Writes all generated pages to the given directory, so that they may
+     * be replaced with recorded ones or used on other machines.
+     */
+    static public void main(String[] args) throws IOException
+    {
+	if (args.length != 1)
+	{
+	    System.err.println("Usage: Corpus <dir>");
+	    System.exit(1);
+	}
+	final File dir = new File(args[0]);
+	dir.mkdirs();
+	for(Profile p: Profile.values())
+	    for(int n: ModelBuilderBenchmark.NODE_COUNTS)
+	    {
+		final File file = new File(dir, getFileName(p, n));
+		SnapshotWriter.write(generate(p, n), file);
+		System.out.println(file.getPath());
+	    }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.controls.web;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.luwrain.browser.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelBuilderBenchmark
+{
+    static final int[] NODE_COUNTS = {1000, 10000, 100000};
+
+    @Param({"1000", "10000", "100000"})
+    public int nodeCount;
+
+    @Param({"ARTICLE", "LISTING", "FORM"})
+    public Corpus.Profile profile;
+
+    private PageSnapshot snapshot;
+    private final BrowserMetrics metrics = new BrowserMetrics();
+
+    @Setup public void setup() throws Exception
+    {
+	this.snapshot = Corpus.load(profile, nodeCount);
+    }
+
+    @Benchmark public Container[] build()
+    {
+	return new ModelBuilder(snapshot, metrics).build();
+    }
+}
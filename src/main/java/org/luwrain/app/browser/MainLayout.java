@@ -17,6 +17,7 @@
 
 package org.luwrain.app.browser;
 
+import java.io.*;
 import java.net.*;
 
 import org.luwrain.core.*;
@@ -25,6 +26,7 @@ import org.luwrain.core.events.*;
 import org.luwrain.controls.web.*;
 import org.luwrain.controls.*;
 import org.luwrain.app.base.*;
+import org.luwrain.settings.browser.Settings;
 
 final class MainLayout extends LayoutBase
 {
@@ -44,6 +46,13 @@ final class MainLayout extends LayoutBase
 	    };
 	    params.callback = new Callback();
 	    	params.clientThread = app;
+	    {
+		final Settings sett = Settings.create(getLuwrain().getRegistry());
+		final String exportDir = sett.getSnapshotExportDir("");
+		if (!exportDir.trim().isEmpty())
+		    params.snapshotExportDir = new File(exportDir.trim());
+		params.modelWindowHeight = Math.max(sett.getModelWindowHeight(0), 0);
+	    }
 	    webArea = new WebArea(params);
 	}
 	setAreaLayout(webArea, actions());
@@ -18,6 +18,8 @@
 package org.luwrain.app.webinspector;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import org.luwrain.core.*;
 import org.luwrain.core.events.*;
@@ -27,6 +29,8 @@ import org.luwrain.app.base.*;
 public final class App extends AppBase <Strings>implements Application
 {
     static final String LOG_COMPONENT = "webins";
+    //Modifications of the page are collected for this time before the items are taken again
+    static private final long UPDATE_DELAY = 1000;
 
     private final String arg;
     Item[] items = new Item[0];
@@ -34,6 +38,12 @@ public final class App extends AppBase <Strings>implements Application
     private MainLayout mainLayout = null;
     private Browser browser = null;
     private Conversations conv = null;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor((r)->{
+	    final Thread t = new Thread(r, "webins-timer");
+	    t.setDaemon(true);
+	    return t;
+	});
+    private final AtomicBoolean updatePending = new AtomicBoolean(false);
 
     public App(String arg)
     {
@@ -84,20 +94,26 @@ public final class App extends AppBase <Strings>implements Application
     }
 
     void updateItems()
+    {
+	updateItems(true);
+    }
+
+    //The items taken on modifications of the page are updated silently
+    private void updateItems(boolean announce)
     {
     	browser.runSafely(()->{
 		browser.update();
 		final BrowserIterator it = browser.createIterator();
 		final List<Item> res = new LinkedList();
-		final int count = browser.getElementCount();
-		for(int i = 0;i < count;++i)
+		for(int i: browser.getDocumentOrder())
 		{
 		    it.setPos(i);
 		    res.add(new Item(it));
 		}
 		getLuwrain().runUiSafely(()->{
 			this.items = res.toArray(new Item[res.size()]);
-			getLuwrain().playSound(Sounds.DONE);
+			if (announce)
+			    getLuwrain().playSound(Sounds.DONE);
 		    });
 		return null;
 	    });
@@ -112,6 +128,7 @@ public final class App extends AppBase <Strings>implements Application
         @Override public void closeApp()
     {
 	this.browser.close();
+	timer.shutdownNow();
 	super.closeApp();
     }
 
@@ -163,6 +180,18 @@ public final class App extends AppBase <Strings>implements Application
 	    //FIXME:
 	    return true;
 	}
+	//Called inside the callback of the page script, the items are taken later on the UI thread
+	@Override public void onPageChanged()
+	{
+	    if (timer.isShutdown() || !updatePending.compareAndSet(false, true))
+		return;
+	    timer.schedule(()->{
+		    getLuwrain().runUiSafely(()->{
+			    updatePending.set(false);
+			    updateItems(false);
+			});
+		}, UPDATE_DELAY, TimeUnit.MILLISECONDS);
+	}
 	@Override public Boolean onConfirm(String message)
 	{
 	    //FIXME:
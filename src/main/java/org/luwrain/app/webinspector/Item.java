@@ -26,6 +26,7 @@ final class Item
 {
     final BrowserIterator it;
     final String className;
+    final NodeKind kind;
     final String inputType;
     final String tagName;
     final String text;
@@ -35,11 +36,12 @@ final class Item
 	NullCheck.notNull(it, "it");
 	this.it = it.clone();
 	this.className = it.getClassName();
+	this.kind = it.getNodeKind();
 	if (it.isInput())
 	    this.inputType = it.getInputType(); else
 	    this.inputType = "";
 	this.tagName = it.getTagName();
-	this.text = it.getText();
+	this.text = it.getNormalizedText();
     }
 
     @Override public String toString()
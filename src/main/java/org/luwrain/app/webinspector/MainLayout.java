@@ -20,6 +20,7 @@ package org.luwrain.app.webinspector;
 import org.luwrain.core.*;
 import org.luwrain.core.events.*;
 import org.luwrain.controls.*;
+import org.luwrain.browser.*;
 
 import org.luwrain.app.base.*;
 
@@ -98,7 +99,7 @@ final class MainLayout extends LayoutBase implements ConsoleArea.InputHandler, C
     private boolean onClick(Item item)
     {
 	NullCheck.notNull(item, "item");
-	if (item.className.equals("HTMLButtonElementImpl") ||
+	if (item.kind == NodeKind.BUTTON ||
 	    item.inputType.equals("submit"))
 	{
 	    app.getBrowser().runSafely(()->{
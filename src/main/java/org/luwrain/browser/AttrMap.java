@@ -0,0 +1,87 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+   Copyright 2015-2016 Roman Volovodov <gr.rPman@gmail.com>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.browser;
+
+import java.util.*;
+
+import org.luwrain.core.*;
+
+//The read-only map over the array of node attributes, names and values are placed one after another
+final class AttrMap extends AbstractMap<String, String>
+{
+    static final AttrMap EMPTY = new AttrMap(new String[0]);
+
+    private final String[] items;
+
+    AttrMap(String[] items)
+    {
+	NullCheck.notNullItems(items, "items");
+	if (items.length % 2 != 0)
+	    throw new IllegalArgumentException("items must have an even length");
+	this.items = items;
+    }
+
+    @Override public String get(Object key)
+    {
+	for(int i = 0;i < items.length;i += 2)
+	    if (items[i].equals(key))
+		return items[i + 1];
+	return null;
+    }
+
+    @Override public boolean containsKey(Object key)
+    {
+	for(int i = 0;i < items.length;i += 2)
+	    if (items[i].equals(key))
+		return true;
+	return false;
+    }
+
+    @Override public int size()
+    {
+	return items.length / 2;
+    }
+
+    @Override public Set<Map.Entry<String, String>> entrySet()
+    {
+	return new AbstractSet<Map.Entry<String, String>>(){
+	    @Override public int size()
+	    {
+		return items.length / 2;
+	    }
+	    @Override public Iterator<Map.Entry<String, String>> iterator()
+	    {
+		return new Iterator<Map.Entry<String, String>>(){
+		    private int pos = 0;
+		    @Override public boolean hasNext()
+		    {
+			return pos < items.length;
+		    }
+		    @Override public Map.Entry<String, String> next()
+		    {
+			if (pos >= items.length)
+			    throw new NoSuchElementException();
+			final Map.Entry<String, String> res = new AbstractMap.SimpleImmutableEntry<>(items[pos], items[pos + 1]);
+			pos += 2;
+			return res;
+		    }
+		};
+	    }
+	};
+    }
+}
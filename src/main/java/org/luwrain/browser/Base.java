@@ -61,9 +61,20 @@ abstract class Base
     public final WebView webView;
     protected final WebEngine webEngine;
     protected DomScanResult domScanRes = null;
+    protected final BrowserMetrics metrics = new BrowserMetrics();
+    private final PageNotifier notifier;
 
     protected JSObject injectionRes = null;
     protected JSObject jsWindow = null;
+    //The modification counter of the injection node table at the moment of the last rescan
+    private long domScanSeq = -1;
+    private final int maxNodes;
+    private final int rescanMinInterval;
+    private final int rescanMaxInterval;
+    private final boolean lazyGeometry;
+    private final String[] styleProperties;
+    //Rescanning in the page is paused while the browser is inactive
+    private boolean active = true;
 
     protected Base(BrowserParams params)
     {
@@ -71,7 +82,23 @@ abstract class Base
 	NullCheck.notNull(params.events, "params.events");
 	NullCheck.notNull(params.userAgent, "params.userAgent");
 	NullCheck.notNull(params.userDataDir, "params.userDataDir");
+	if (params.maxNodes <= 0)
+	    throw new IllegalArgumentException("params.maxNodes (" + params.maxNodes + ") must be greater than zero");
+	if (params.rescanMinInterval <= 0)
+	    throw new IllegalArgumentException("params.rescanMinInterval (" + params.rescanMinInterval + ") must be greater than zero");
+	if (params.rescanMaxInterval < params.rescanMinInterval)
+	    throw new IllegalArgumentException("params.rescanMaxInterval (" + params.rescanMaxInterval + ") may not be less than params.rescanMinInterval (" + params.rescanMinInterval + ")");
+	NullCheck.notNullItems(params.styleProperties, "params.styleProperties");
+	for(String s: params.styleProperties)
+	    if (s.trim().isEmpty() || s.indexOf(",") >= 0)
+		throw new IllegalArgumentException("params.styleProperties may not contain empty names and commas");
 	FxThread.ensure();
+	this.maxNodes = params.maxNodes;
+	this.rescanMinInterval = params.rescanMinInterval;
+	this.rescanMaxInterval = params.rescanMaxInterval;
+	this.lazyGeometry = params.lazyGeometry;
+	this.styleProperties = params.styleProperties.clone();
+	this.notifier = new PageNotifier(params.events);
 	final BrowserEvents events = params.events;
 	this.injection = readInjection();
 	this.webView = new WebView();
@@ -105,6 +132,7 @@ Object executeScript(String script)
     {
 	FxThread.ensure();
 	this.injectionRes = null;
+	this.domScanSeq = -1;
     }
 
     private void runInjection()
@@ -112,9 +140,24 @@ Object executeScript(String script)
 	try {
 	    final JSObject window = (JSObject)webEngine.executeScript("window");
 	    window.setMember("console",new MyConsole());
+	    window.setMember("luwrainNotifier", notifier);
+	    //The injection reads its parameters at the start
+	    final JSObject injectionParams = (JSObject)webEngine.executeScript("new Object()");
+	    injectionParams.setMember("maxNodes", Integer.valueOf(maxNodes));
+	    injectionParams.setMember("minTimeout", Integer.valueOf(rescanMinInterval));
+	    injectionParams.setMember("maxTimeout", Integer.valueOf(rescanMaxInterval));
+	    injectionParams.setMember("lazyGeometry", Boolean.valueOf(lazyGeometry));
+	    injectionParams.setMember("styleProperties", String.join(",", styleProperties));
+	    window.setMember("luwrainParams", injectionParams);
 	    this.injectionRes = (JSObject)webEngine.executeScript(injection);
+	    this.domScanSeq = -1;
 	    if (injectionRes == null)
+	    {
 		Log.warning(LOG_COMPONENT, "the injection result is null after running the injection script");
+		return;
+	    }
+	    if (!active)
+		injectionRes.call("setPaused", Boolean.TRUE);
 	}
 	catch(Throwable e)
 	{
@@ -126,54 +169,298 @@ Object executeScript(String script)
 protected void update()
     {
 	FxThread.ensure();
+	final long startTime = System.nanoTime();
 	try {
 	    if(injectionRes == null || injectionRes.getMember("name").equals("_luwrain_"))
 		return;
+	    metrics.addBridgeCalls(1);
+	    //The paused injection doesn't rescan by itself, doing it right now
+	    if (!active)
+	    {
+		injectionRes.call("onTimeout");
+		metrics.addBridgeCalls(1);
+	    }
 	    final HTMLDocument webDoc = (HTMLDocument)webEngine.getDocument();
 	    if(webDoc == null)
 	    {
 		Log.warning(LOG_COMPONENT, "no web document");
 		return;
 	    }
-final DOMWindowImpl window = (DOMWindowImpl)((DocumentView)webDoc).getDefaultView();
-this.domScanRes = new DomScanResult(window);
-	    final JSObject js = (JSObject)injectionRes.getMember("dom");
-	    Object o = null;
-	    for(int i=0;!(o=js.getSlot(i)).getClass().equals(String.class);i++)
+	    //The injection increments seq on every modification of its node table, nothing to do if there were no modifications
+	    final long seq = jsLong(injectionRes.getMember("seq"));
+	    metrics.addBridgeCalls(1);
+	    if (domScanRes != null && seq == domScanSeq)
 	    {
-		final JSObject rect=(JSObject)((JSObject)o).getMember("r");
-		final Node n=(Node)((JSObject)o).getMember("n");
-		int x = 0;
-		int y = 0;
-		int width = 0;
-		int height = 0;
-		if(rect != null)
-		{
-		    x = (int)jsLong(rect.getMember("left"));
-		    y = (int)jsLong(rect.getMember("top"));
-		    width=(int)jsLong(rect.getMember("width"));
-		    height=(int)jsLong(rect.getMember("height"));
-		}
-		final NodeInfo info = new NodeInfo(n, x, y, width, height);
-		domScanRes.domMap.put(n, i);
-		domScanRes.dom.add(info);
+		Log.debug(LOG_COMPONENT, "no DOM modifications since the last rescan");
+		return;
 	    }
-	    for(NodeInfo info: domScanRes.dom)
+	    //All numbers come in one string, only new nodes are fetched separately
+	    final int prevEpoch = (domScanRes != null && domScanSeq >= 0)?(int)domScanRes.epoch:-1;
+	    final PackedReader packed = new PackedReader(injectionRes.call("exportDelta", Integer.valueOf(prevEpoch)).toString());
+	    metrics.addBridgeCalls(1);
+	    final long epoch = packed.nextLong();
+	    final long newSeq = packed.nextLong();
+	    final boolean full = packed.nextInt() != 0;
+	    //The injection measures in milliseconds
+	    metrics.add(BrowserMetrics.Type.INJECTION_DOM, packed.nextLong() * 1000);
+	    metrics.add(BrowserMetrics.Type.INJECTION_SCAN, packed.nextLong() * 1000);
+	    //Node ids are stable within one epoch, otherwise the injection packs the full node table
+	    if (full)
 	    {
-		final Node parent = info.getNode().getParentNode();
-		if(domScanRes.domMap.containsKey(parent))
-		    info.setParentIndex(domScanRes.domMap.get(parent).intValue());
+		final DOMWindowImpl window = (DOMWindowImpl)((DocumentView)webDoc).getDefaultView();
+		this.domScanRes = new DomScanResult(window, epoch);
 	    }
+	    //Any modification may move the nodes out of the delta, in the lazy mode their rectangles will be fetched again on demand
+	    //In the eager mode the injection sends the records of the nodes with modified geometry itself
+	    if (!full && lazyGeometry)
+		domScanRes.clearRects();
+	    if (!full)
+		domScanRes.clearStyles();
+	    applyDelta(packed);
+	    domScanRes.updateOrder();
+	    this.domScanSeq = newSeq;
 	    	    this.jsWindow = (JSObject)webEngine.executeScript("window");
+	    metrics.addBridgeCalls(1);
+	    metrics.setNodeCount(domScanRes.getOrder().length);
+	    metrics.add(BrowserMetrics.Type.UPDATE, (System.nanoTime() - startTime) / 1000);
 		    Log.debug(LOG_COMPONENT, "DOM rescanning completed");
 	}
 	catch(Throwable e)
 	{
 	    Log.error(LOG_COMPONENT, "unable to rescan DOM:" + e.getClass().getName() + ":" + e.getMessage());
 	    e.printStackTrace();
+	    //The delta is lost, the next rescan must read the full node table
+	    this.domScanSeq = -1;
+	}
+    }
+
+    /**
+     * Pauses or resumes periodic DOM rescanning in the page. The inactive
+     * browser rescans only on explicit updates, the modifications are still
+     * collected and arrive with the next update.
+     *
+     * @param active True to resume rescanning, false to pause it
+     */
+    protected void setActive(boolean active)
+    {
+	FxThread.ensure();
+	if (this.active == active)
+	    return;
+	this.active = active;
+	if (injectionRes != null)
+	    injectionRes.call("setPaused", Boolean.valueOf(!active));
+	Log.debug(LOG_COMPONENT, "DOM rescanning " + (active?"resumed":"paused"));
+    }
+
+    private void applyDelta(PackedReader packed)
+    {
+	NullCheck.notNull(packed, "packed");
+	final int removedCount = packed.nextInt();
+	for(int i = 0;i < removedCount;i++)
+	    domScanRes.remove(packed.nextInt());
+	final int addedCount = packed.nextInt();
+	final int changedCount = packed.nextInt();
+	final JSObject nodes = addedCount > 0?(JSObject)injectionRes.getMember("exportNodes"):null;
+	//One call for the array and one for each of its items
+	metrics.addBridgeCalls(addedCount > 0?addedCount + 1:0);
+	for(int i = 0;i < addedCount;i++)
+	    readRecord(packed, (Node)nodes.getSlot(i));
+	for(int i = 0;i < changedCount;i++)
+	    readRecord(packed, null);
+	Log.debug(LOG_COMPONENT, "DOM delta applied: " + removedCount + " removed, " + addedCount + " added, " + changedCount + " changed");
+    }
+
+    //Reads one record of 8 numbers: id, parent id, previous sibling id, left, top, width, height and hash
+    private void readRecord(PackedReader packed, Node node)
+    {
+	NullCheck.notNull(packed, "packed");
+	final int id = packed.nextInt();
+	final int parent = packed.nextInt();
+	final int prev = packed.nextInt();
+	final int x = packed.nextInt();
+	final int y = packed.nextInt();
+	final int width = packed.nextInt();
+	final int height = packed.nextInt();
+	final int hash = packed.nextInt();
+	final Node n;
+	if (node != null)
+	    n = node; else
+	{
+	    //Changed nodes must be already known
+	    if (!domScanRes.exists(id))
+		throw new IllegalStateException("the changed node " + id + " is absent in the scan result");
+	    n = domScanRes.getNode(id);
+	}
+	domScanRes.set(id, n, parent, prev, hash);
+	//The injection doesn't calculate rectangles in the lazy mode
+	if (!lazyGeometry)
+	    domScanRes.setRect(id, x, y, width, height);
+    }
+
+    /**
+     * Fetches rectangles of the given nodes which are not known yet in one
+     * call to the injection. The nodes without the geometry get empty
+     * rectangles.
+     */
+    void fetchRects(int[] positions)
+    {
+	NullCheck.notNull(positions, "positions");
+	FxThread.ensure();
+	if (domScanRes == null || injectionRes == null)
+	    return;
+	final int[] ids = new int[positions.length];
+	int count = 0;
+	for(int p: positions)
+	    if (domScanRes.exists(p) && !domScanRes.hasRect(p))
+		ids[count++] = p;
+	if (count == 0)
+	    return;
+	final PackedReader packed = new PackedReader(injectionRes.call("exportRects", Integer.valueOf((int)domScanRes.epoch), joinIds(ids, count)).toString());
+	metrics.addBridgeCalls(1);
+	//The node table was rebuilt, the rectangles will be fetched after the next rescan
+	if (!packed.hasNext())
+	    return;
+	for(int i = 0;i < count;i++)
+	{
+	    if (packed.nextInt() == 0)
+	    {
+		domScanRes.setRect(ids[i], 0, 0, 0, 0);
+		continue;
+	    }
+	    final int x = packed.nextInt();
+	    final int y = packed.nextInt();
+	    final int width = packed.nextInt();
+	    final int height = packed.nextInt();
+	    domScanRes.setRect(ids[i], x, y, width, height);
 	}
     }
 
+    /**
+     * Fetches values of the style properties given in the browser params
+     * for the nodes which don't have them yet. All values come in one call
+     * to the injection, repeated values are shared.
+     */
+    void fetchStyles(int[] positions)
+    {
+	NullCheck.notNull(positions, "positions");
+	FxThread.ensure();
+	if (domScanRes == null || injectionRes == null || styleProperties.length == 0)
+	    return;
+	final int[] ids = new int[positions.length];
+	int count = 0;
+	for(int p: positions)
+	    if (domScanRes.exists(p) && domScanRes.getStyles(p) == null)
+		ids[count++] = p;
+	if (count == 0)
+	    return;
+	final String res = injectionRes.call("exportStyles", Integer.valueOf((int)domScanRes.epoch), joinIds(ids, count)).toString();
+	metrics.addBridgeCalls(1);
+	//The node table was rebuilt, the styles will be fetched after the next rescan
+	if (res.isEmpty())
+	    return;
+	final PackedStrings strings = new PackedStrings(res);
+	final PackedReader packed = strings.getNumbers();
+	for(int i = 0;i < count;i++)
+	{
+	    final String[] styles = new String[styleProperties.length];
+	    for(int j = 0;j < styles.length;j++)
+		styles[j] = strings.get(packed.nextInt());
+	    domScanRes.setStyles(ids[i], styles);
+	}
+    }
+
+    /**
+     * Fetches attributes of the given nodes which don't have them yet. All
+     * attributes come in one call to the injection, repeated names and
+     * values are shared. The attributes stay until the node is changed.
+     */
+    void fetchAttrs(int[] positions)
+    {
+	NullCheck.notNull(positions, "positions");
+	FxThread.ensure();
+	if (domScanRes == null || injectionRes == null)
+	    return;
+	final int[] ids = new int[positions.length];
+	int count = 0;
+	for(int p: positions)
+	    if (domScanRes.exists(p) && domScanRes.getAttrs(p) == null)
+		ids[count++] = p;
+	if (count == 0)
+	    return;
+	final String res = injectionRes.call("exportAttrs", Integer.valueOf((int)domScanRes.epoch), joinIds(ids, count)).toString();
+	metrics.addBridgeCalls(1);
+	//The node table was rebuilt, the attributes will be fetched after the next rescan
+	if (res.isEmpty())
+	    return;
+	final PackedStrings strings = new PackedStrings(res);
+	final PackedReader packed = strings.getNumbers();
+	for(int i = 0;i < count;i++)
+	{
+	    final int attrCount = packed.nextInt();
+	    if (attrCount == 0)
+	    {
+		domScanRes.setAttrs(ids[i], AttrMap.EMPTY);
+		continue;
+	    }
+	    final String[] items = new String[attrCount * 2];
+	    for(int j = 0;j < items.length;j++)
+		items[j] = strings.get(packed.nextInt());
+	    domScanRes.setAttrs(ids[i], new AttrMap(items));
+	}
+    }
+
+    /**
+     * Takes the beginnings of the texts of the subtrees of the given nodes
+     * in one call to the injection. The texts aren't kept, since they are
+     * needed only for the nodes whose subtrees aren't taken at all.
+     *
+     * @return The texts in the order of the positions, empty for unknown nodes
+     */
+    String[] fetchSubtreeTexts(int[] positions, int maxLength)
+    {
+	NullCheck.notNull(positions, "positions");
+	FxThread.ensure();
+	final String[] res = new String[positions.length];
+	Arrays.fill(res, "");
+	if (domScanRes == null || injectionRes == null || positions.length == 0)
+	    return res;
+	final int[] ids = new int[positions.length];
+	for(int i = 0;i < positions.length;i++)
+	    ids[i] = domScanRes.exists(positions[i])?positions[i]:-1;
+	final String packed = injectionRes.call("exportTexts", Integer.valueOf((int)domScanRes.epoch), joinIds(ids, ids.length), Integer.valueOf(maxLength)).toString();
+	metrics.addBridgeCalls(1);
+	//The node table was rebuilt, the texts will be taken after the next rescan
+	if (packed.isEmpty())
+	    return res;
+	final PackedStrings strings = new PackedStrings(packed);
+	final PackedReader numbers = strings.getNumbers();
+	for(int i = 0;i < positions.length;i++)
+	    res[i] = strings.get(numbers.nextInt());
+	return res;
+    }
+
+    static private String joinIds(int[] ids, int count)
+    {
+	final StringBuilder b = new StringBuilder();
+	for(int i = 0;i < count;i++)
+	{
+	    if (i > 0)
+		b.append(",");
+	    b.append(ids[i]);
+	}
+	return new String(b);
+    }
+
+    //Returns the index of the style property in the browser params or -1
+    int getStylePropertyIndex(String name)
+    {
+	NullCheck.notNull(name, "name");
+	for(int i = 0;i < styleProperties.length;i++)
+	    if (styleProperties[i].equals(name))
+		return i;
+	return -1;
+    }
+
     private void onStateChanged(BrowserEvents events, ObservableValue<? extends State> ov, State oldState, State newState)
     {
 	NullCheck.notNull(events, "events");
@@ -202,6 +489,9 @@ this.domScanRes = new DomScanResult(window);
 	    break;
 	case SCHEDULED:	
 	    state = BrowserEvents.State.SCHEDULED;
+	    if (metrics.getNodeCount() > 0)
+		Log.debug(LOG_COMPONENT, "metrics of the previous page: " + metrics.toString());
+	    metrics.reset();
 	    break;
 	case SUCCEEDED:
 	    runInjection();
@@ -39,8 +39,14 @@ public final class Browser extends Base
 	FxThread.runSync(()->super.update());
     }
 
+    @Override public void setActive(boolean active)
+    {
+	FxThread.runSync(()->super.setActive(active));
+    }
+
     public void close()
     {
+	setActive(false);
 	hideGraphical();
     }
 
@@ -120,10 +126,99 @@ public final class Browser extends Base
 	return new BrowserIterator(this);
     }
 
+    /**
+     * Returns the upper bound of node positions. Positions of removed nodes
+     * stay unused, so some of the positions below this value may be invalid.
+     *
+     * @return The upper bound of node positions
+     */
     public int getElementCount()
     {
 	if (domScanRes == null)
 	    return 0;
-	return domScanRes.dom.size();
+	return domScanRes.size();
+    }
+
+    /**
+     * Fetches rectangles of the given nodes in one call to the page. It
+     * saves the time on requesting rectangles one by one, if the browser
+     * calculates the geometry lazily.
+     *
+     * @param positions The positions of the nodes whose rectangles will be needed
+     */
+    public void prefetchRects(int[] positions)
+    {
+	NullCheck.notNull(positions, "positions");
+	FxThread.ensure();
+	fetchRects(positions);
+    }
+
+    /**
+     * Fetches values of the style properties given in the browser params
+     * for the given nodes in one call to the page. Other properties are
+     * still requested node by node.
+     *
+     * @param positions The positions of the nodes whose styles will be needed
+     */
+    public void prefetchStyles(int[] positions)
+    {
+	NullCheck.notNull(positions, "positions");
+	FxThread.ensure();
+	fetchStyles(positions);
+    }
+
+    /**
+     * Fetches attributes of the given nodes in one call to the page. The
+     * attributes are kept until the node is modified, so each node needs
+     * them to be fetched only once.
+     *
+     * @param positions The positions of the nodes whose attributes will be needed
+     */
+    public void prefetchAttrs(int[] positions)
+    {
+	NullCheck.notNull(positions, "positions");
+	FxThread.ensure();
+	fetchAttrs(positions);
+    }
+
+    /**
+     * Takes the beginnings of the texts of the subtrees of the given nodes
+     * in one call to the page. Spaces are collapsed in the texts.
+     *
+     * @param positions The positions of the subtree roots
+     * @param maxLength The greatest length of every text
+     * @return The texts in the order of the positions, empty for unknown nodes
+     */
+    public String[] getSubtreeTexts(int[] positions, int maxLength)
+    {
+	NullCheck.notNull(positions, "positions");
+	if (maxLength < 0)
+	    throw new IllegalArgumentException("maxLength (" + maxLength + ") may not be negative");
+	FxThread.ensure();
+	return fetchSubtreeTexts(positions, maxLength);
+    }
+
+    /**
+     * Returns performance figures of the current page. The object is the
+     * same during the whole life of the browser, it is reset on loading of
+     * every new page.
+     *
+     * @return The metrics of the current page
+     */
+    public BrowserMetrics getMetrics()
+    {
+	return metrics;
+    }
+
+    /**
+     * Returns positions of all existing nodes in the document order.
+     *
+     * @return The array of node positions
+     */
+    public int[] getDocumentOrder()
+    {
+	if (domScanRes == null)
+	    return new int[0];
+	return domScanRes.getOrder().clone();
     }
 }
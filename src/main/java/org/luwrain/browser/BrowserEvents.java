@@ -36,5 +36,6 @@ public interface BrowserEvents
     void onError(String message);
     boolean onDownloadStart(String url);
     Boolean onConfirm(String message);
-    //void onPageChanged();
+    //Called in the FX thread when the page is modified after the last rescan, the following modifications are reported only after the next rescan
+    default void onPageChanged() {}
 }
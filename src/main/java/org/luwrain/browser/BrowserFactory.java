@@ -39,6 +39,18 @@ public final class BrowserFactory
 	final org.luwrain.settings.browser.Settings sett = org.luwrain.settings.browser.Settings.create(luwrain.getRegistry());
 	params.userAgent = sett.getUserAgent(params.userAgent);
 	params.javaScriptEnabled = sett.getJavaScriptEnabled(true);
+	//Wrong values in the registry may not prevent the creation of the browser, the defaults are kept instead
+	final int rescanMinInterval = sett.getRescanMinInterval(params.rescanMinInterval);
+	final int rescanMaxInterval = sett.getRescanMaxInterval(params.rescanMaxInterval);
+	if (rescanMinInterval > 0)
+	    params.rescanMinInterval = rescanMinInterval; else
+	    Log.warning(Base.LOG_COMPONENT, "ignoring the rescan minimum interval " + rescanMinInterval + ", it must be greater than zero");
+	if (rescanMaxInterval < params.rescanMinInterval)
+	{
+	    Log.warning(Base.LOG_COMPONENT, "ignoring the rescan maximum interval " + rescanMaxInterval + ", it may not be less than the minimum interval " + params.rescanMinInterval);
+	    params.rescanMaxInterval = Math.max(params.rescanMaxInterval, params.rescanMinInterval);
+	} else
+	    params.rescanMaxInterval = rescanMaxInterval;
 	final File baseDir = luwrain.getAppDataDir("luwrain.browser").toFile();
 	final UUID uuid = UUID.randomUUID();
 	params.userDataDir = new File(baseDir, uuid.toString().replaceAll("-", ""));
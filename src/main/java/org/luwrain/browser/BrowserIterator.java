@@ -37,10 +37,12 @@ public final class BrowserIterator
     private final Base browser;
     private int pos;
 
-    //Set by prepare() function
+    //Set by prepare() function, the position is validated only once per generation of the scan result
     private DomScanResult scanRes = null;
-    private List<NodeInfo> dom = null;
-    private NodeInfo nodeInfo = null;
+    private int scanGeneration = -1;
+    private Node domNode = null;
+    //The node of the last valid position, used to find the node again after a full rescan
+    private Node lastNode = null;
 
     BrowserIterator(Base browser, int pos)
     {
@@ -63,29 +65,139 @@ public final class BrowserIterator
 
     public boolean setPos(int value)
     {
-	prepare("BrowserImpl.setPos()");
-	if (value < 0 || value >= scanRes.dom.size())
-	    throw new IndexOutOfBoundsException("value (" + value + ") must be non-negative and less than " + scanRes.dom.size());
-	this.pos = value;
+	prepareScanRes("BrowserImpl.setPos()");
+	if (value < 0 || value >= scanRes.size())
+	    throw new IndexOutOfBoundsException("value (" + value + ") must be non-negative and less than " + scanRes.size());
+	if (!scanRes.exists(value))
+	    throw new IllegalArgumentException("value (" + value + ") points to the removed node");
+	moveTo(value);
+	return true;
+    }
+
+    /**
+     * Returns the position of the parent of the current node.
+     *
+     * @return The position of the parent or -1 if the current node is a top-level one
+     */
+    public int getParentPos()
+    {
+	prepare("BrowserIterator.getParentPos()");
+	final int res = scanRes.getParent(pos);
+	return scanRes.exists(res)?res:-1;
+    }
+
+    /**
+     * Returns the position of the first child of the current node.
+     *
+     * @return The position of the first child or -1 if there are no children
+     */
+    public int getFirstChildPos()
+    {
+	prepare("BrowserIterator.getFirstChildPos()");
+	return scanRes.getFirstChild(pos);
+    }
+
+    /**
+     * Returns the position of the next sibling of the current node.
+     *
+     * @return The position of the next sibling or -1 if the current node is the last child
+     */
+    public int getNextSiblingPos()
+    {
+	prepare("BrowserIterator.getNextSiblingPos()");
+	return scanRes.getNextSibling(pos);
+    }
+
+    /**
+     * Moves the iterator to the parent of the current node without creating
+     * any new objects.
+     *
+     * @return True if the iterator is moved, false if the current node is a top-level one
+     */
+    public boolean moveToParent()
+    {
+	final int res = getParentPos();
+	if (res < 0)
+	    return false;
+	moveTo(res);
+	return true;
+    }
+
+    /**
+     * Moves the iterator to the first child of the current node without
+     * creating any new objects.
+     *
+     * @return True if the iterator is moved, false if there are no children
+     */
+    public boolean moveToFirstChild()
+    {
+	final int res = getFirstChildPos();
+	if (res < 0)
+	    return false;
+	moveTo(res);
 	return true;
     }
 
+    /**
+     * Moves the iterator to the next sibling of the current node without
+     * creating any new objects.
+     *
+     * @return True if the iterator is moved, false if the current node is the last child
+     */
+    public boolean moveToNextSibling()
+    {
+	final int res = getNextSiblingPos();
+	if (res < 0)
+	    return false;
+	moveTo(res);
+	return true;
+    }
+
+    //The position must be already checked with the current scan result
+    private void moveTo(int value)
+    {
+	this.pos = value;
+	this.domNode = scanRes.getNode(value);
+	this.lastNode = domNode;
+    }
+
     @Override public BrowserIterator clone()
     {
-	return new BrowserIterator(browser, pos);
+	final BrowserIterator res = new BrowserIterator(browser, pos);
+	res.lastNode = lastNode;
+	return res;
+    }
+
+    /**
+     * Checks if the node of this iterator is still present in the DOM. After
+     * a full rescan the iterator finds its node at the new position, so it
+     * stays valid if the node wasn't removed.
+     *
+     * @return True if the iterator points to an existing node, false otherwise
+     */
+    public boolean isValid()
+    {
+	try {
+	    prepare("BrowserIterator.isValid()");
+	    return true;
+	}
+	catch(RuntimeException e)
+	{
+	    return false;
+	}
     }
 
     public String getText()
     {
 	prepare("IteratorImpl.getText()");
-    	if(nodeInfo.getNode() instanceof Text)
+    	if(domNode instanceof Text)
 	{
-	    final String text = nodeInfo.getNode().getNodeValue();
+	    final String text = domNode.getNodeValue();
 	    return text != null?text:"";
 	}
-	if(nodeInfo.getNode() instanceof HTMLInputElement)
+	if(domNode instanceof HTMLInputElement)
 	{
-	    final HTMLInputElement input=((HTMLInputElement)nodeInfo.getNode());
+	    final HTMLInputElement input=((HTMLInputElement)domNode);
 	    final String text;
 	    if(input.getType().equals("checkbox") ||
 	       input.getType().equals("radio"))
@@ -93,9 +205,9 @@ public final class BrowserIterator
 		text = input.getValue();
 	    return text != null?text:"";
 	}
-	if(nodeInfo.getNode() instanceof HTMLSelectElement)
+	if(domNode instanceof HTMLSelectElement)
 	{
-	    final HTMLSelectElement select = (HTMLSelectElement)nodeInfo.getNode();
+	    final HTMLSelectElement select = (HTMLSelectElement)domNode;
 	    final int index = select.getSelectedIndex();
 	    final String text = select.getOptions().item(index).getTextContent();
 	    // TODO: make multiselect support
@@ -104,24 +216,47 @@ public final class BrowserIterator
 	return "";
     }
 
+    /**
+     * Returns the text of the current node normalized with
+     * {@link TextNormalizer#DEFAULT}. The text of a text node is
+     * normalized once after every modification of the node and is shared
+     * by all callers. The values of inputs may be changed without any
+     * modification of the DOM, so they are normalized on every call.
+     *
+     * @return The normalized text of the current node
+     */
+    public String getNormalizedText()
+    {
+	prepare("BrowserIterator.getNormalizedText()");
+	if (!(domNode instanceof Text))
+	    return TextNormalizer.DEFAULT.normalize(getText());
+	String res = scanRes.getText(pos);
+	if (res == null)
+	{
+	    res = TextNormalizer.DEFAULT.normalize(getText());
+	    scanRes.setText(pos, res);
+	}
+	return res;
+    }
+
     public String getAltText()
     {
 	prepare("BrowserImpl.getAltText()");
 	String text = "";
-	if(nodeInfo.getNode() instanceof HTMLAnchorElement ||
-	   nodeInfo.getNode() instanceof HTMLImageElement ||
-	   nodeInfo.getNode() instanceof HTMLInputElement ||
-	   nodeInfo.getNode() instanceof HTMLTextAreaElement)
+	if(domNode instanceof HTMLAnchorElement ||
+	   domNode instanceof HTMLImageElement ||
+	   domNode instanceof HTMLInputElement ||
+	   domNode instanceof HTMLTextAreaElement)
 	{ // title
-	    if(nodeInfo.getNode().hasAttributes())
+	    if(domNode.hasAttributes())
 	    {
-		final Node title = nodeInfo.getNode().getAttributes().getNamedItem("title");
+		final Node title = domNode.getAttributes().getNamedItem("title");
 		if(title != null)
 		    text = "title:" + title.getNodeValue();
-		final Node alt = nodeInfo.getNode().getAttributes().getNamedItem("alt");
+		final Node alt = domNode.getAttributes().getNamedItem("alt");
 		if(alt != null)
 		    text = (!text.isEmpty()?" ":"")+"alt:"+alt.getNodeValue();
-		final Node placeholder = nodeInfo.getNode().getAttributes().getNamedItem("placeholder");
+		final Node placeholder = domNode.getAttributes().getNamedItem("placeholder");
 		if(placeholder != null)
 		    text = (!text.isEmpty()?" ":"")+"alt:"+placeholder.getNodeValue();
 	    }
@@ -133,9 +268,9 @@ public final class BrowserIterator
     @Override public String[] getMultipleText()
     {
 	prepare("BrowserImpl.getMultipleText()");
-    	if(nodeInfo.getNode() instanceof HTMLSelectElement)
+    	if(domNode instanceof HTMLSelectElement)
     	{
-	    final HTMLSelectElement select = (HTMLSelectElement)nodeInfo.getNode();
+	    final HTMLSelectElement select = (HTMLSelectElement)domNode;
 	    final List<String> res = new LinkedList();
 	    for(int i = select.getLength() - 1;i >= 0;i--)
 	    {
@@ -153,16 +288,19 @@ public final class BrowserIterator
     public Rectangle getRect()
     {
 	prepare("BrowserImpl.getRect()");
-	return nodeInfo.getRect();
+	if (!scanRes.hasRect(pos))
+	    browser.fetchRects(new int[]{pos});
+	//The rectangle is still unknown if the page is being rescanned
+	return scanRes.hasRect(pos)?scanRes.getRect(pos):new Rectangle();
     }
 
     /*
     @Override public boolean isEditable()
     {
 	prepare("BrowserImpl.isEditable()");
-	if(nodeInfo.getNode() instanceof HTMLInputElement)
+	if(domNode instanceof HTMLInputElement)
 	{
-	    final String inputType = ((HTMLInputElement)nodeInfo.getNode()).getType();
+	    final String inputType = ((HTMLInputElement)domNode).getType();
 	    switch(inputType.toLowerCase().trim())
 	    {
 	    case "button":
@@ -174,9 +312,9 @@ public final class BrowserIterator
 		return true;
 	    }
 	}
-	if(nodeInfo.getNode() instanceof HTMLSelectElement)
+	if(domNode instanceof HTMLSelectElement)
 	    return true;
-	if(nodeInfo.getNode() instanceof HTMLTextAreaElement)
+	if(domNode instanceof HTMLTextAreaElement)
 	    return true; 
 	return false;
     }
@@ -186,9 +324,9 @@ public final class BrowserIterator
     {
 	NullCheck.notNull(text, "text");
 	prepare("IteratorImpl.setText()");
-	if(nodeInfo.getNode() instanceof HTMLInputElement)
+	if(domNode instanceof HTMLInputElement)
 	{
-	    final HTMLInputElement input = ((HTMLInputElement)nodeInfo.getNode());
+	    final HTMLInputElement input = ((HTMLInputElement)domNode);
 	    if(input.getType().equals("checkbox") ||
 	       input.getType().equals("radio"))
 	    {
@@ -198,9 +336,9 @@ public final class BrowserIterator
 	    input.setValue(text);
 	    return;
 	} //HTMLInputElement
-	if(nodeInfo.getNode() instanceof HTMLSelectElement)
+	if(domNode instanceof HTMLSelectElement)
 	{
-	    final HTMLSelectElement select=(HTMLSelectElement)nodeInfo.getNode();
+	    final HTMLSelectElement select=(HTMLSelectElement)domNode;
 	    for(int i = select.getLength();i>=0;i--)
 	    {
 		Node option=select.getOptions().item(i);
@@ -215,9 +353,9 @@ public final class BrowserIterator
 	    }
 	    return;
 	} //HTMLSelectElement
-	if(nodeInfo.getNode() instanceof HTMLTextAreaElement)
+	if(domNode instanceof HTMLTextAreaElement)
 	{
-	    ((HTMLTextAreaElement)nodeInfo.getNode()).setTextContent(text);
+	    ((HTMLTextAreaElement)domNode).setTextContent(text);
 	    return;
 	} //HTMLTextAreaElement
     }
@@ -225,33 +363,33 @@ public final class BrowserIterator
     public String getClassName()
     {
 	prepare("IteratorImpl.getClassName()");
-	String className = nodeInfo.getNode().getClass().getName();
-	final int dotPos = className.lastIndexOf(".");
-	if (dotPos >= 0 && dotPos + 1 < className.length())
-	    className = className.substring(dotPos + 1);
-	if (className == null)
-	    className = "";
-	if (className.toLowerCase().startsWith("html"))
-	    className = className.substring(4);
-	if (className.toLowerCase().endsWith("impl"))
-	    className = className.substring(0, className.length() - 4);
-	if (className.toLowerCase().endsWith("element"))
-	    className = className.substring(0, className.length() - 7);
-	return className;
+	return NodeKind.getClassName(domNode.getClass());
+    }
+
+    /**
+     * Returns the kind of the current node. The kind is taken at the scan of
+     * the node, so it is cheaper than comparing the class name.
+     *
+     * @return The kind of the current node
+     */
+    public NodeKind getNodeKind()
+    {
+	prepare("IteratorImpl.getNodeKind()");
+	return scanRes.getNodeKind(pos);
     }
 
     public boolean isInput()
     {
 		prepare("IteratorImpl.isInput()");
-		return nodeInfo.getNode() instanceof HTMLInputElement;
+		return domNode instanceof HTMLInputElement;
     }
 
     public String getInputType()
     {
 	prepare("IteratorImpl.getInputType()");
-	if (!(nodeInfo.getNode() instanceof HTMLInputElement))
+	if (!(domNode instanceof HTMLInputElement))
 	    return "";
-	    final HTMLInputElement input = ((HTMLInputElement)nodeInfo.getNode());
+	    final HTMLInputElement input = ((HTMLInputElement)domNode);
 	    final String res = input.getType();
 	    return res != null?res:"";
     }
@@ -260,9 +398,9 @@ public final class BrowserIterator
     {
 	NullCheck.notNull(text, "text");
 	prepare("IteratorImpl.setInputText()");
-	if(!(nodeInfo.getNode() instanceof HTMLInputElement))
+	if(!(domNode instanceof HTMLInputElement))
 	    return false;
-	    	    final HTMLInputElement input = ((HTMLInputElement)nodeInfo.getNode());
+	    	    final HTMLInputElement input = ((HTMLInputElement)domNode);
     input.setValue(text);
     return true;
     }
@@ -271,9 +409,9 @@ public final class BrowserIterator
     @Override public String getLink()
     {
 	prepare("BrowserImpl.getLink()");
-	if(nodeInfo.getNode() instanceof HTMLAnchorElement)
+	if(domNode instanceof HTMLAnchorElement)
 	    return getAttr("href"); else
-	    if(nodeInfo.getNode() instanceof HTMLImageElement)
+	    if(domNode instanceof HTMLImageElement)
 		return getAttr("src");
 	return "";
     }
@@ -282,20 +420,33 @@ public final class BrowserIterator
     public String getAttr(String name)
     {
 	prepare("IteratorImpl.getAttr()");
-	if(!nodeInfo.getNode().hasAttributes()) 
+	final Map<String, String> cached = getCachedAttrs();
+	if (cached != null)
+	    return cached.get(name);
+	if(!domNode.hasAttributes()) 
 	    return null;
-	final Node attr = nodeInfo.getNode().getAttributes().getNamedItem(name);
+	final Node attr = domNode.getAttributes().getNamedItem(name);
 	if(attr == null)
 	    return null;
 	return attr.getNodeValue();
     }
 
+    /**
+     * Returns attributes of the current node. The attributes are read from
+     * the page once and shared until the node is modified, so the returned
+     * map is read-only.
+     *
+     * @return The read-only map of the attributes
+     */
     public Map<String, String> getAttrs()
     {
 	prepare("BrowserImpl.getAttrs()");
-	if(!nodeInfo.getNode().hasAttributes()) 
-	    return new HashMap();
-	final NamedNodeMap attrs = nodeInfo.getNode().getAttributes();
+	final Map<String, String> cached = getCachedAttrs();
+	if (cached != null)
+	    return cached;
+	if(!domNode.hasAttributes()) 
+	    return AttrMap.EMPTY;
+	final NamedNodeMap attrs = domNode.getAttributes();
 	final HashMap<String, String> res = new HashMap();
 	for(int i = 0;i < attrs.getLength();i++)
 	{
@@ -308,7 +459,15 @@ public final class BrowserIterator
 	    final String value = node.getNodeValue();
 	    res.put(name, value != null?value:"");
 	}
-	return res;
+	return Collections.unmodifiableMap(res);
+    }
+
+    //Returns null if the attributes can't be fetched in bulk now
+    private Map<String, String> getCachedAttrs()
+    {
+	if (scanRes.getAttrs(pos) == null)
+	    browser.fetchAttrs(new int[]{pos});
+	return scanRes.getAttrs(pos);
     }
 
 
@@ -316,10 +475,10 @@ public final class BrowserIterator
     @Override public String getComputedText()
     {
 	prepare("IteratorImpl.getComputedText()");
-	if(!scanRes.domMap.containsKey(nodeInfo.getNode())) 
+	if(scanRes.indexOf(domNode) < 0) 
 	    return "";
 	try{
-	    final Object obj = executeScriptWithNode(nodeInfo.getNode(), "(function(){var x=window.LUWRAIN_OBJ;return x.innerText===undefined?x.nodeValue:x.innerText})()");
+	    final Object obj = executeScriptWithNode(domNode, "(function(){var x=window.LUWRAIN_OBJ;return x.innerText===undefined?x.nodeValue:x.innerText})()");
 	    return obj != null?obj.toString():"";
 	}
 	catch(Throwable e)
@@ -334,9 +493,18 @@ public final class BrowserIterator
     {
 	NullCheck.notEmpty(name, "name");
 	prepare("IteratorImpl.getComputedStyle()");
-	if(nodeInfo.getNode() instanceof com.sun.webkit.dom.HTMLDocumentImpl)
+	if(domNode instanceof com.sun.webkit.dom.HTMLDocumentImpl)
 	    return "";
-	final Node node = findNonTextNode(nodeInfo);
+	//The properties given in the browser params are fetched in bulk
+	final int styleIndex = browser.getStylePropertyIndex(name);
+	if (styleIndex >= 0)
+	{
+	    if (scanRes.getStyles(pos) == null)
+		browser.fetchStyles(new int[]{pos});
+	    if (scanRes.getStyles(pos) != null)
+		return scanRes.getStyles(pos)[styleIndex];
+	}
+	final Node node = findNonTextNode(domNode);
 	if (node == null || !(node instanceof HTMLElement))
 	    return "";
 	final CSSStyleDeclaration style = scanRes.window.getComputedStyle((HTMLElement)node, "");
@@ -347,9 +515,9 @@ return res != null?res:"";
     public String getAllComputedStyles()
     {
 	prepare("IteratorImpl.getAllComputedStyles()");
-	if(nodeInfo.getNode() instanceof com.sun.webkit.dom.HTMLDocumentImpl)
+	if(domNode instanceof com.sun.webkit.dom.HTMLDocumentImpl)
 	    return "";
-	final Node node = findNonTextNode(nodeInfo);
+	final Node node = findNonTextNode(domNode);
 	if (node == null || !(node instanceof HTMLElement))
 	    return "";
 	final CSSStyleDeclaration style = scanRes.window.getComputedStyle((HTMLElement)node, "");
@@ -360,7 +528,7 @@ return res != null?res:"";
     public void emulateSubmit()
     {
 	prepare("BrowserImpl.emulateSubmit()");
-	Node node = findNonTextNode(nodeInfo);
+	Node node = findNonTextNode(domNode);
 	while(node != null)
 	{
 	    if(node instanceof HTMLInputElement ||
@@ -393,7 +561,7 @@ return res != null?res:"";
     public void emulateClick()
     {
 	prepare("IteratorImpl.emulateClick()");
-	final Node node = findNonTextNode(nodeInfo);
+	final Node node = findNonTextNode(domNode);
 	try {
 	    executeScriptWithNode(node, "(function(){var x=window.LUWRAIN_OBJ; x.click();})()");
 	}
@@ -406,21 +574,82 @@ return res != null?res:"";
     public boolean hasParent()
     {
 	prepare("BrowserImpl.hasParent()");
-	return nodeInfo.hasParent();
+	return scanRes.getParent(pos) >= 0;
     }
 
     public BrowserIterator getParent()
     {
 	prepare("BrowserImpl.getParent()");
-	if(!nodeInfo.hasParent())
+	if(scanRes.getParent(pos) < 0)
 	    return null;
-	return new BrowserIterator(browser, nodeInfo.getParentIndex());
+	return new BrowserIterator(browser, scanRes.getParent(pos));
+    }
+
+    /**
+     * Returns the iterator pointing to the first child of the current node.
+     *
+     * @return The iterator of the first child or null if there are no children
+     */
+    public BrowserIterator getFirstChild()
+    {
+	prepare("BrowserIterator.getFirstChild()");
+	final int res = scanRes.getFirstChild(pos);
+	return res >= 0?new BrowserIterator(browser, res):null;
+    }
+
+    /**
+     * Returns the iterator pointing to the next sibling of the current node.
+     *
+     * @return The iterator of the next sibling or null if the current node is the last child
+     */
+    public BrowserIterator getNextSibling()
+    {
+	prepare("BrowserIterator.getNextSibling()");
+	final int res = scanRes.getNextSibling(pos);
+	return res >= 0?new BrowserIterator(browser, res):null;
+    }
+
+    /**
+     * Returns the number of ancestors of the current node.
+     *
+     * @return The depth of the current node, zero for the top-level nodes
+     */
+    public int getDepth()
+    {
+	prepare("BrowserIterator.getDepth()");
+	return scanRes.getDepth(pos);
+    }
+
+    /**
+     * Returns the index of the current node in the array of positions
+     * returned by {@link Browser#getDocumentOrder()}.
+     *
+     * @return The index of the current node in the document order
+     */
+    public int getOrderIndex()
+    {
+	prepare("BrowserIterator.getOrderIndex()");
+	return scanRes.getOrderPos(pos);
+    }
+
+    /**
+     * Returns the index in the document order right after the last
+     * descendant of the current node. All descendants are placed in the
+     * document order between {@link #getOrderIndex()} and this value, so
+     * the whole subtree can be walked without any recursion.
+     *
+     * @return The index after the end of the subtree of the current node
+     */
+    public int getSubtreeEnd()
+    {
+	prepare("BrowserIterator.getSubtreeEnd()");
+	return scanRes.getSubtreeEnd(pos);
     }
 
     public String getTagName()
     {
 	prepare("IteratorImpl.getTagName()");
-final String res = nodeInfo.getNode().getNodeName();
+final String res = domNode.getNodeName();
 return res != null?res:"";
     }
 
@@ -429,10 +658,10 @@ return res != null?res:"";
 	return (Browser)browser;
     }
 
-    private Node findNonTextNode(NodeInfo info)
+    private Node findNonTextNode(Node start)
     {
-	NullCheck.notNull(info, "info");
-	Node node = info.getNode();
+	NullCheck.notNull(start, "start");
+	Node node = start;
 	while (node != null && node.getNodeType() == Node.TEXT_NODE)
 	    node = node.getParentNode(); // text node click sometimes does not work, move to parent
 	return node;
@@ -450,15 +679,39 @@ return res != null?res:"";
     }
 
     private void prepare(String funcName)
+    {
+	//The thread is checked even on the fast path, models are built on other threads and must never touch the page
+	FxThread.ensure();
+	final DomScanResult res = browser.getDomScanResult();
+	//Nothing to check, if the scan result wasn't modified since the last check
+	if (res != null && res == scanRes && res.getGeneration() == scanGeneration && domNode != null)
+	    return;
+	prepareScanRes(funcName);
+	//The position could be given to another node after a full rescan, finding the node by its identity
+	if (lastNode != null && (pos >= scanRes.size() || scanRes.getNode(pos) != lastNode))
+	{
+	    final int newPos = scanRes.indexOf(lastNode);
+	    if (newPos < 0)
+		throw new RuntimeException(funcName + ": the node of the iterator is removed from the DOM");
+	    this.pos = newPos;
+	}
+	if (pos >= scanRes.size())
+	    throw new RuntimeException(funcName + ": the internal index points outside of the DOM, it means there could be rescanDom() calls and thsi iterator is no longer actual");
+	this.domNode = scanRes.getNode(pos);
+	if (domNode == null)
+	    throw new RuntimeException(funcName + ": the internal index points to the node removed from the DOM");
+	this.lastNode = domNode;
+    }
+
+    //Takes the current scan result without checking the position
+    private void prepareScanRes(String funcName)
     {
 	NullCheck.notEmpty(funcName, "funcName");
 	FxThread.ensure();
 	this.scanRes = browser.getDomScanResult();
+	this.domNode = null;
 	if (scanRes == null)
 	    throw new RuntimeException(funcName + ": No scan result in the browser, it means that there were no rescanDom() calls");
-	this.dom = scanRes.dom;
-	if (pos >= dom.size())
-	    throw new RuntimeException(funcName + ": the internal index points outside of the DOM, it means there could be rescanDom() calls and thsi iterator is no longer actual");
-	this.nodeInfo = dom.get(pos);
+	this.scanGeneration = scanRes.getGeneration();
     }
 }
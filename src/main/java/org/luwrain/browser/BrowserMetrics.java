@@ -0,0 +1,177 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+   Copyright 2015-2016 Roman Volovodov <gr.rPman@gmail.com>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+//LWR_API 1.0
+
+package org.luwrain.browser;
+
+import java.util.*;
+
+import org.luwrain.core.*;
+
+/**
+ * Collects performance figures of one page load. The browser resets them
+ * every time a new page starts loading. Durations are kept in microseconds.
+ * Only the latest samples of each kind are kept for percentiles, so the
+ * percentiles describe the recent behaviour of the page.
+ */
+public final class BrowserMetrics
+{
+    public enum Type {
+	/** The time of the last modifying DOM scan inside the page, measured by the injection */
+	INJECTION_DOM,
+	/** The time of the whole last modifying pass of the injection, including the delta preparation */
+	INJECTION_SCAN,
+	/** The duration of the rescan on the Java side, including the bridge calls */
+	UPDATE,
+	/** The time of taking the page snapshot for the web area on the browser thread */
+	MODEL_SNAPSHOT,
+	/** The duration of the model construction for the web area in the background */
+	MODEL_BUILD,
+    };
+
+    static final int WINDOW_SIZE = 512;
+
+    private final long[][] samples = new long[Type.values().length][WINDOW_SIZE];
+    //Total numbers of samples since the reset, the ring position is count % WINDOW_SIZE
+    private final int[] counts = new int[Type.values().length];
+    private int nodeCount = 0;
+    private long bridgeCallCount = 0;
+
+    /**
+     * Adds a new sample of the given kind. The durations measured in the
+     * page are taken with the wall clock, so they may be negative after a
+     * step of the clock. Such samples are dropped.
+     *
+     * @param type The kind of the sample
+     * @param micros The duration in microseconds
+     */
+    public synchronized void add(Type type, long micros)
+    {
+	NullCheck.notNull(type, "type");
+	if (micros < 0)
+	    return;
+	final int t = type.ordinal();
+	samples[t][counts[t] % WINDOW_SIZE] = micros;
+	counts[t]++;
+    }
+
+    /**
+     * Returns the value below which the given percent of the latest samples
+     * falls, using the nearest-rank method.
+     *
+     * @param type The kind of samples
+     * @param percent The percentile in the range from 0 to 100
+     * @return The percentile in microseconds or zero if there are no samples
+     */
+    public synchronized long getPercentile(Type type, int percent)
+    {
+	NullCheck.notNull(type, "type");
+	if (percent < 0 || percent > 100)
+	    throw new IllegalArgumentException("percent (" + percent + ") must be in the range from 0 to 100");
+	final int t = type.ordinal();
+	final int len = Math.min(counts[t], WINDOW_SIZE);
+	if (len == 0)
+	    return 0;
+	final long[] sorted = Arrays.copyOf(samples[t], len);
+	Arrays.sort(sorted);
+	final int rank = (int)Math.ceil(percent * len / 100.0);
+	return sorted[rank > 0?rank - 1:0];
+    }
+
+    /**
+     * Returns the most recent sample of the given kind.
+     *
+     * @param type The kind of samples
+     * @return The last sample in microseconds or zero if there are no samples
+     */
+    public synchronized long getLast(Type type)
+    {
+	NullCheck.notNull(type, "type");
+	final int t = type.ordinal();
+	if (counts[t] == 0)
+	    return 0;
+	return samples[t][(counts[t] - 1) % WINDOW_SIZE];
+    }
+
+    /**
+     * Returns the number of samples of the given kind since the page
+     * started loading, including the ones which are out of the percentile
+     * window already.
+     *
+     * @param type The kind of samples
+     * @return The number of samples
+     */
+    public synchronized int getCount(Type type)
+    {
+	NullCheck.notNull(type, "type");
+	return counts[type.ordinal()];
+    }
+
+    /**
+     * Returns the number of DOM nodes after the last rescan.
+     *
+     * @return The number of nodes
+     */
+    public synchronized int getNodeCount()
+    {
+	return nodeCount;
+    }
+
+    /**
+     * Returns the number of calls through the JavaScript bridge made for
+     * rescanning since the page started loading.
+     *
+     * @return The number of bridge calls
+     */
+    public synchronized long getBridgeCallCount()
+    {
+	return bridgeCallCount;
+    }
+
+    synchronized void setNodeCount(int nodeCount)
+    {
+	if (nodeCount < 0)
+	    throw new IllegalArgumentException("nodeCount (" + nodeCount + ") may not be negative");
+	this.nodeCount = nodeCount;
+    }
+
+    synchronized void addBridgeCalls(int num)
+    {
+	this.bridgeCallCount += num;
+    }
+
+    synchronized void reset()
+    {
+	Arrays.fill(counts, 0);
+	this.nodeCount = 0;
+	this.bridgeCallCount = 0;
+    }
+
+    @Override public synchronized String toString()
+    {
+	final StringBuilder b = new StringBuilder();
+	b.append("nodes=").append(nodeCount).append(", bridge calls=").append(bridgeCallCount);
+	for(Type t: Type.values())
+	    if (counts[t.ordinal()] > 0)
+		b.append(", ").append(t.name().toLowerCase()).append(": n=").append(counts[t.ordinal()])
+		.append(" p50=").append(getPercentile(t, 50))
+		.append(" p95=").append(getPercentile(t, 95))
+		.append(" max=").append(getPercentile(t, 100));
+	return new String(b);
+    }
+}
@@ -30,4 +30,13 @@ public final class BrowserParams
     public String userAgent = "LUWRAIN";
     public File userDataDir = null;
     public boolean javaScriptEnabled = true;
+    //The maximum number of DOM nodes to scan, the rest of a huge document is skipped
+    public int maxNodes = 100000;
+    //The bounds of the adaptive interval between DOM rescans in milliseconds
+    public int rescanMinInterval = 250;
+    public int rescanMaxInterval = 10000;
+    //Node rectangles are calculated only when they are requested, it makes scanning of long pages much faster
+    public boolean lazyGeometry = true;
+    //Computed style properties taken for many nodes in one call, other properties are requested node by node
+    public String[] styleProperties = new String[]{"visibility", "display", "font-weight", "font-size"};
 }
@@ -1,6 +1,7 @@
 
 package org.luwrain.browser;
 
+import java.awt.Rectangle;
 import java.util.*;
 
 import com.sun.webkit.dom.DOMWindowImpl;
@@ -8,15 +9,364 @@ import org.w3c.dom.Node;
 
 import org.luwrain.core.*;
 
+//All node data is kept in parallel arrays indexed by node ids given by the injection, removed nodes have null in the nodes array
 final class DomScanResult
 {
+    static private final String LOG_COMPONENT = Base.LOG_COMPONENT;
+    static private final int INITIAL_CAPACITY = 256;
+
     final DOMWindowImpl window;
-    final List<NodeInfo> dom = new ArrayList();
-    final Map<Node, Integer> domMap = new HashMap();
+    final long epoch;
+
+    //The upper bound of used ids
+    private int size = 0;
+    private Node[] nodes = new Node[INITIAL_CAPACITY];
+    //The ordinal of NodeKind, taken once on adding
+    private byte[] nodeKind = new byte[INITIAL_CAPACITY];
+    private int[] parent = new int[INITIAL_CAPACITY];
+    private int[] prev = new int[INITIAL_CAPACITY];
+    private int[] hash = new int[INITIAL_CAPACITY];
+    private int[] x = new int[INITIAL_CAPACITY];
+    private int[] y = new int[INITIAL_CAPACITY];
+    private int[] width = new int[INITIAL_CAPACITY];
+    private int[] height = new int[INITIAL_CAPACITY];
+    //False if the geometry is requested lazily and not fetched yet
+    private boolean[] rectKnown = new boolean[INITIAL_CAPACITY];
+    //Values of the style properties given in the browser params, null if not fetched yet
+    private String[][] styles = new String[INITIAL_CAPACITY][];
+    //Attributes of nodes, null if not fetched yet
+    private AttrMap[] attrs = new AttrMap[INITIAL_CAPACITY];
+    //Normalized texts of text nodes, null if not taken yet
+    private String[] texts = new String[INITIAL_CAPACITY];
+    private final NodeIndex index = new NodeIndex();
+
+    //The tree restored by updateOrder(), the last item of firstChild is for the top-level nodes
+    private int[] firstChild = new int[]{-1};
+    private int[] nextSibling = new int[0];
+    private int[] depth = new int[0];
+    //Positions in the document order of nodes and of the ends of their subtrees
+    private int[] orderPos = new int[0];
+    private int[] subtreeEnd = new int[0];
+    private int[] order = new int[0];
+    //Incremented on every modification, so that iterators know when to validate their positions again
+    private int generation = 0;
 
-    DomScanResult(DOMWindowImpl window)
+    DomScanResult(DOMWindowImpl window, long epoch)
     {
 	NullCheck.notNull(window, "window");
 	this.window = window;
+	this.epoch = epoch;
+    }
+
+    /**
+     * Saves the node with its links. The node may be already known, if its
+     * record is changed. The geometry and styles of the node become unknown.
+     */
+    void set(int id, Node node, int parentId, int prevId, int hashValue)
+    {
+	NullCheck.notNull(node, "node");
+	if (id < 0)
+	    throw new IllegalArgumentException("id (" + id + ") may not be negative");
+	ensureCapacity(id + 1);
+	if (nodes[id] != node)
+	{
+	    if (nodes[id] != null)
+		index.remove(nodes[id]);
+	    nodes[id] = node;
+	    nodeKind[id] = (byte)NodeKind.of(node.getClass()).ordinal();
+	    index.put(node, id);
+	}
+	parent[id] = parentId >= 0?parentId:-1;
+	prev[id] = prevId >= 0?prevId:-1;
+	hash[id] = hashValue;
+	rectKnown[id] = false;
+	styles[id] = null;
+	attrs[id] = null;
+	texts[id] = null;
+	if (id >= size)
+	    size = id + 1;
+    }
+
+    void remove(int id)
+    {
+	if (!exists(id))
+	    return;
+	index.remove(nodes[id]);
+	nodes[id] = null;
+	styles[id] = null;
+	attrs[id] = null;
+	texts[id] = null;
+	rectKnown[id] = false;
+    }
+
+    boolean exists(int id)
+    {
+	return id >= 0 && id < size && nodes[id] != null;
+    }
+
+    //The upper bound of node ids, some of ids below it may be removed
+    int size()
+    {
+	return size;
+    }
+
+    Node getNode(int id)
+    {
+	return nodes[id];
+    }
+
+    //Returns the id of the given node or -1 if the node is unknown
+    int indexOf(Node node)
+    {
+	return index.get(node);
+    }
+
+    NodeKind getNodeKind(int id)
+    {
+	return NodeKind.valueOf(nodeKind[id]);
+    }
+
+    int getParent(int id)
+    {
+	return parent[id];
+    }
+
+    int getPrev(int id)
+    {
+	return prev[id];
+    }
+
+    //The hash of the node content calculated by the injection
+    int getHash(int id)
+    {
+	return hash[id];
+    }
+
+    boolean hasRect(int id)
+    {
+	return rectKnown[id];
+    }
+
+    //Returns null if the geometry is requested lazily and not fetched yet
+    Rectangle getRect(int id)
+    {
+	if (!rectKnown[id])
+	    return null;
+	return new Rectangle(x[id], y[id], width[id], height[id]);
+    }
+
+    void setRect(int id, int x, int y, int width, int height)
+    {
+	this.x[id] = x;
+	this.y[id] = y;
+	this.width[id] = width;
+	this.height[id] = height;
+	this.rectKnown[id] = true;
+    }
+
+    String[] getStyles(int id)
+    {
+	return styles[id];
+    }
+
+    void setStyles(int id, String[] values)
+    {
+	styles[id] = values;
+    }
+
+    //Attributes change only with the change of the node record, so they are never cleared all at once
+    AttrMap getAttrs(int id)
+    {
+	return attrs[id];
+    }
+
+    void setAttrs(int id, AttrMap value)
+    {
+	attrs[id] = value;
+    }
+
+    //Texts of text nodes change only with the change of the node record, like attributes
+    String getText(int id)
+    {
+	return texts[id];
+    }
+
+    void setText(int id, String value)
+    {
+	texts[id] = value;
+    }
+
+    /**
+     * Forgets all rectangles, so that they are fetched again on demand. The
+     * layout could be changed by any modification, so the rectangles of
+     * the nodes out of the delta are valid only until the next rescan. It
+     * is needed only in the lazy geometry mode, otherwise the rectangles
+     * come with the delta.
+     */
+    void clearRects()
+    {
+	Arrays.fill(rectKnown, 0, size, false);
+    }
+
+    /**
+     * Forgets all style values, so that they are fetched again on demand.
+     * Any modification may change inherited styles of the nodes which aren't
+     * in the delta.
+     */
+    void clearStyles()
+    {
+	Arrays.fill(styles, 0, size, null);
+    }
+
+    /**
+     * Returns the indices of all existing nodes in the document order. Node
+     * indices are stable across delta updates, so new nodes may have
+     * greater indices than the following ones.
+     */
+    int[] getOrder()
+    {
+	return order;
+    }
+
+    int getGeneration()
+    {
+	return generation;
+    }
+
+    int getFirstChild(int id)
+    {
+	return id < nextSibling.length?firstChild[id]:-1;
+    }
+
+    int getNextSibling(int id)
+    {
+	return id < nextSibling.length?nextSibling[id]:-1;
+    }
+
+    //The top-level nodes have zero depth
+    int getDepth(int id)
+    {
+	return depth[id];
+    }
+
+    //The position of the node in the array returned by getOrder()
+    int getOrderPos(int id)
+    {
+	return orderPos[id];
+    }
+
+    //The position in the document order right after the last descendant of the node
+    int getSubtreeEnd(int id)
+    {
+	return subtreeEnd[id];
+    }
+
+    /**
+     * Restores the document order from the parent and previous sibling
+     * indices of all nodes. The child, sibling, depth and subtree indices
+     * are built at the same pass. It must be called after every
+     * modification.
+     */
+    void updateOrder()
+    {
+	final int[] parent = new int[size];
+	//The last item is for the top-level nodes
+	final int[] firstChild = new int[size + 1];
+	final int[] nextSibling = new int[size];
+	Arrays.fill(firstChild, -1);
+	Arrays.fill(nextSibling, -1);
+	int count = 0;
+	for(int i = 0;i < size;i++)
+	{
+	    parent[i] = -1;
+	    if (nodes[i] == null)
+		continue;
+	    count++;
+	    if (exists(this.parent[i]))
+		parent[i] = this.parent[i];
+	}
+	for(int i = 0;i < size;i++)
+	{
+	    if (nodes[i] == null)
+		continue;
+	    final int p = prev[i];
+	    if (exists(p) && parent[p] == parent[i])
+		nextSibling[p] = i; else
+		firstChild[parent[i] >= 0?parent[i]:size] = i;
+	}
+	final int[] res = new int[count];
+	final int[] depth = new int[size];
+	final int[] orderPos = new int[size];
+	final int[] subtreeEnd = new int[size];
+	final boolean[] visited = new boolean[size];
+	int k = 0;
+	int d = 0;
+	int n = firstChild[size];
+	while(n >= 0 && !visited[n])
+	{
+	    visited[n] = true;
+	    depth[n] = d;
+	    orderPos[n] = k;
+	    res[k++] = n;
+	    if (firstChild[n] >= 0)
+	    {
+		n = firstChild[n];
+		d++;
+		continue;
+	    }
+	    //Leaving the node and all its ancestors without following siblings
+	    subtreeEnd[n] = k;
+	    while(n >= 0 && nextSibling[n] < 0)
+	    {
+		n = parent[n];
+		d--;
+		if (n >= 0)
+		    subtreeEnd[n] = k;
+	    }
+	    if (n >= 0)
+		n = nextSibling[n];
+	}
+	if (k < count)
+	{
+	    //Inconsistent sibling links, putting the rest to the end
+	    Log.warning(LOG_COMPONENT, "" + (count - k) + " nodes are out of the document order");
+	    for(int i = 0;i < size;i++)
+		if (nodes[i] != null && !visited[i])
+		{
+		    depth[i] = 0;
+		    orderPos[i] = k;
+		    res[k++] = i;
+		    subtreeEnd[i] = k;
+		}
+	}
+	this.firstChild = firstChild;
+	this.nextSibling = nextSibling;
+	this.depth = depth;
+	this.orderPos = orderPos;
+	this.subtreeEnd = subtreeEnd;
+	this.order = res;
+	this.generation++;
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+	if (capacity <= nodes.length)
+	    return;
+	int newCapacity = nodes.length * 2;
+	while(newCapacity < capacity)
+	    newCapacity *= 2;
+	nodes = Arrays.copyOf(nodes, newCapacity);
+	nodeKind = Arrays.copyOf(nodeKind, newCapacity);
+	parent = Arrays.copyOf(parent, newCapacity);
+	prev = Arrays.copyOf(prev, newCapacity);
+	hash = Arrays.copyOf(hash, newCapacity);
+	x = Arrays.copyOf(x, newCapacity);
+	y = Arrays.copyOf(y, newCapacity);
+	width = Arrays.copyOf(width, newCapacity);
+	height = Arrays.copyOf(height, newCapacity);
+	rectKnown = Arrays.copyOf(rectKnown, newCapacity);
+	styles = Arrays.copyOf(styles, newCapacity);
+	attrs = Arrays.copyOf(attrs, newCapacity);
+	texts = Arrays.copyOf(texts, newCapacity);
     }
 }
@@ -0,0 +1,112 @@
+
+package org.luwrain.browser;
+
+//Maps DOM nodes to their positions by identity, without boxing of positions
+final class NodeIndex
+{
+    static private final int INITIAL_CAPACITY = 64;
+
+    //Open addressing with linear probing, the capacity is always a power of two
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int count = 0;
+
+    int get(Object key)
+    {
+	if (key == null)
+	    return -1;
+	final int mask = keys.length - 1;
+	int i = slot(key, mask);
+	while(keys[i] != null)
+	{
+	    if (keys[i] == key)
+		return values[i];
+	    i = (i + 1) & mask;
+	}
+	return -1;
+    }
+
+    void put(Object key, int value)
+    {
+	if (key == null)
+	    throw new NullPointerException("key may not be null");
+	if ((count + 1) * 2 > keys.length)
+	    grow();
+	final int mask = keys.length - 1;
+	int i = slot(key, mask);
+	while(keys[i] != null)
+	{
+	    if (keys[i] == key)
+	    {
+		values[i] = value;
+		return;
+	    }
+	    i = (i + 1) & mask;
+	}
+	keys[i] = key;
+	values[i] = value;
+	count++;
+    }
+
+    void remove(Object key)
+    {
+	if (key == null)
+	    return;
+	final int mask = keys.length - 1;
+	int i = slot(key, mask);
+	while(keys[i] != key)
+	{
+	    if (keys[i] == null)
+		return;
+	    i = (i + 1) & mask;
+	}
+	keys[i] = null;
+	count--;
+	//Shifting back the following entries of the same cluster, so that lookups don't stop on the hole
+	int j = i;
+	while(true)
+	{
+	    j = (j + 1) & mask;
+	    if (keys[j] == null)
+		return;
+	    final int k = slot(keys[j], mask);
+	    //The entry stays if its home slot is cyclically in (i, j]
+	    if (i <= j?(i < k && k <= j):(i < k || k <= j))
+		continue;
+	    keys[i] = keys[j];
+	    values[i] = values[j];
+	    keys[j] = null;
+	    i = j;
+	}
+    }
+
+    int size()
+    {
+	return count;
+    }
+
+    void clear()
+    {
+	this.keys = new Object[INITIAL_CAPACITY];
+	this.values = new int[INITIAL_CAPACITY];
+	this.count = 0;
+    }
+
+    private void grow()
+    {
+	final Object[] oldKeys = keys;
+	final int[] oldValues = values;
+	this.keys = new Object[oldKeys.length * 2];
+	this.values = new int[oldKeys.length * 2];
+	this.count = 0;
+	for(int i = 0;i < oldKeys.length;i++)
+	    if (oldKeys[i] != null)
+		put(oldKeys[i], oldValues[i]);
+    }
+
+    static private int slot(Object key, int mask)
+    {
+	final int h = System.identityHashCode(key) * 0x9E3779B9;
+	return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+   Copyright 2015-2016 Roman Volovodov <gr.rPman@gmail.com>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.browser;
+
+import org.luwrain.core.*;
+
+/**
+ * The kind of a DOM node determined by the class implementing it. The
+ * kind is calculated once per class and is kept by the scan result for
+ * every node, so that it is cheap to check it for nodes of the page.
+ */
+public enum NodeKind
+{
+    ANCHOR,
+    BR,
+    BUTTON,
+    DOCUMENT_TYPE,
+    HEADING,
+    IMAGE,
+    INPUT,
+    LIST_ITEM,
+    PARAGRAPH,
+    SCRIPT,
+    STYLE,
+    TEXT,
+    TITLE,
+    //The element without its own class, like span, em or b
+    ELEMENT,
+    OTHER;
+
+    static private final NodeKind[] VALUES = values();
+
+    static private final ClassValue<String> CLASS_NAMES = new ClassValue<String>(){
+	    @Override protected String computeValue(Class<?> cl)
+	    {
+		return makeClassName(cl);
+	    }
+	};
+
+    static private final ClassValue<NodeKind> KINDS = new ClassValue<NodeKind>(){
+	    @Override protected NodeKind computeValue(Class<?> cl)
+	    {
+		return makeKind(CLASS_NAMES.get(cl));
+	    }
+	};
+
+    static NodeKind of(Class<?> cl)
+    {
+	NullCheck.notNull(cl, "cl");
+	return KINDS.get(cl);
+    }
+
+    static NodeKind valueOf(int ordinal)
+    {
+	return VALUES[ordinal];
+    }
+
+    //The class name without the package, the "HTML" prefix and the "Impl" and "Element" suffixes
+    static String getClassName(Class<?> cl)
+    {
+	NullCheck.notNull(cl, "cl");
+	return CLASS_NAMES.get(cl);
+    }
+
+    static private String makeClassName(Class<?> cl)
+    {
+	String className = cl.getName();
+	final int dotPos = className.lastIndexOf(".");
+	if (dotPos >= 0 && dotPos + 1 < className.length())
+	    className = className.substring(dotPos + 1);
+	if (className.toLowerCase().startsWith("html"))
+	    className = className.substring(4);
+	if (className.toLowerCase().endsWith("impl"))
+	    className = className.substring(0, className.length() - 4);
+	if (className.toLowerCase().endsWith("element"))
+	    className = className.substring(0, className.length() - 7);
+	return className.intern();
+    }
+
+    static private NodeKind makeKind(String className)
+    {
+	switch(className)
+	{
+	case "Anchor":
+	    return ANCHOR;
+	case "BR":
+	    return BR;
+	case "Button":
+	    return BUTTON;
+	case "DocumentType":
+	    return DOCUMENT_TYPE;
+	case "Heading":
+	    return HEADING;
+	case "Image":
+	    return IMAGE;
+	case "Input":
+	    return INPUT;
+	case "LI":
+	    return LIST_ITEM;
+	case "Paragraph":
+	    return PARAGRAPH;
+	case "Script":
+	    return SCRIPT;
+	case "Style":
+	    return STYLE;
+	case "Text":
+	    return TEXT;
+	case "Title":
+	    return TITLE;
+	case "":
+	    return ELEMENT;
+	default:
+	    return OTHER;
+	}
+    }
+}
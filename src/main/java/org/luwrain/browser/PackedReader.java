@@ -0,0 +1,75 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+   Copyright 2015-2016 Roman Volovodov <gr.rPman@gmail.com>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.browser;
+
+import org.luwrain.core.*;
+
+/**
+ * Sequentially reads integers from the string of comma-separated numbers
+ * prepared by the injection. The whole scan result crosses the JavaScript
+ * bridge in one string, so it is decoded here without any intermediate
+ * objects.
+ */
+final class PackedReader
+{
+    private final String text;
+    private int pos = 0;
+
+    PackedReader(String text)
+    {
+	NullCheck.notNull(text, "text");
+	this.text = text;
+    }
+
+    boolean hasNext()
+    {
+	return pos < text.length();
+    }
+
+    long nextLong()
+    {
+	if (pos >= text.length())
+	    throw new IllegalStateException("no more numbers in the packed data of length " + text.length());
+	final boolean negative = text.charAt(pos) == '-';
+	if (negative)
+	    pos++;
+	final int start = pos;
+	long res = 0;
+	while(pos < text.length())
+	{
+	    final char c = text.charAt(pos);
+	    if (c == ',')
+		break;
+	    if (c < '0' || c > '9')
+		throw new IllegalArgumentException("unexpected character '" + c + "' at position " + pos + " of the packed data");
+	    res = res * 10 + (c - '0');
+	    pos++;
+	}
+	if (pos == start)
+	    throw new IllegalArgumentException("no digits at position " + pos + " of the packed data");
+	//Skipping the comma
+	if (pos < text.length())
+	    pos++;
+	return negative?-res:res;
+    }
+
+    int nextInt()
+    {
+	return (int)nextLong();
+    }
+}
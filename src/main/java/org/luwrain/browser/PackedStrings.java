@@ -0,0 +1,95 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+   Copyright 2015-2016 Roman Volovodov <gr.rPman@gmail.com>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.browser;
+
+import org.luwrain.core.*;
+
+/**
+ * Decodes the string table prepared by the injection: the number of
+ * strings on the first line, the strings with escaped line breaks and
+ * backslashes on separate lines and comma-separated numbers referring to
+ * them on the last line. Every distinct string is decoded once, so that
+ * repeated values share the same object.
+ */
+final class PackedStrings
+{
+    private final String[] strings;
+    private final PackedReader numbers;
+
+    PackedStrings(String text)
+    {
+	NullCheck.notNull(text, "text");
+	final String[] lines = text.split("\n", -1);
+	final int count;
+	try {
+	    count = Integer.parseInt(lines[0]);
+	}
+	catch(NumberFormatException e)
+	{
+	    throw new IllegalArgumentException("the string table must begin with the number of strings", e);
+	}
+	if (lines.length != count + 2)
+	    throw new IllegalArgumentException("the string table must have " + (count + 2) + " lines, but there are " + lines.length);
+	this.strings = new String[count];
+	for(int i = 0;i < count;i++)
+	    strings[i] = unescape(lines[i + 1]);
+	this.numbers = new PackedReader(lines[lines.length - 1]);
+    }
+
+    String get(int index)
+    {
+	if (index < 0 || index >= strings.length)
+	    throw new IllegalArgumentException("index (" + index + ") must be non-negative and less than " + strings.length);
+	return strings[index];
+    }
+
+    PackedReader getNumbers()
+    {
+	return numbers;
+    }
+
+    static String unescape(String line)
+    {
+	NullCheck.notNull(line, "line");
+	if (line.indexOf('\\') < 0)
+	    return line;
+	final StringBuilder b = new StringBuilder();
+	for(int i = 0;i < line.length();i++)
+	{
+	    final char c = line.charAt(i);
+	    if (c != '\\' || i + 1 >= line.length())
+	    {
+		b.append(c);
+		continue;
+	    }
+	    i++;
+	    switch(line.charAt(i))
+	    {
+	    case 'n':
+		b.append('\n');
+		break;
+	    case 'r':
+		b.append('\r');
+		break;
+	    default:
+		b.append(line.charAt(i));
+	    }
+	}
+	return new String(b);
+    }
+}
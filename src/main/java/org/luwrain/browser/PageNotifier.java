@@ -0,0 +1,42 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+   Copyright 2015-2016 Roman Volovodov <gr.rPman@gmail.com>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.browser;
+
+import org.luwrain.core.*;
+
+/**
+ * The bridge object called by the injection after it finds modifications
+ * of the page. The injection merges all modifications until the next
+ * rescan by Java into one call. The class must be public to be accessible
+ * from JavaScript, but it isn't a part of the browser API.
+ */
+public final class PageNotifier
+{
+    private final BrowserEvents events;
+
+    PageNotifier(BrowserEvents events)
+    {
+	NullCheck.notNull(events, "events");
+	this.events = events;
+    }
+
+    public void onModified()
+    {
+	events.onPageChanged();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+   Copyright 2015-2016 Roman Volovodov <gr.rPman@gmail.com>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+//LWR_API 1.0
+
+package org.luwrain.browser;
+
+import java.text.Normalizer;
+
+import org.luwrain.core.*;
+
+/**
+ * Prepares texts of the page for reading. Control characters are
+ * replaced with spaces and sequences of spaces are collapsed into one in
+ * a single pass. The text is returned as is, if there is nothing to
+ * change. Optionally the text is brought to the given Unicode
+ * normalization form before that.
+ */
+public final class TextNormalizer
+{
+    /** The normalizer without Unicode normalization */
+    static public final TextNormalizer DEFAULT = new TextNormalizer(null);
+
+    private final Normalizer.Form form;
+
+    /**
+     * Creates the normalizer.
+     *
+     * @param form The Unicode normalization form or null if Unicode normalization isn't needed
+     */
+    public TextNormalizer(Normalizer.Form form)
+    {
+	this.form = form;
+    }
+
+    /**
+     * Normalizes the given text.
+     *
+     * @param text The text to normalize
+     * @return The normalized text, the same object if nothing is changed
+     */
+    public String normalize(String text)
+    {
+	NullCheck.notNull(text, "text");
+	final String t = (form != null && !Normalizer.isNormalized(text, form))?Normalizer.normalize(text, form):text;
+	final int len = t.length();
+	boolean wasSpace = false;
+	int i = 0;
+	//Looking for the first character to change
+	for(;i < len;i++)
+	{
+	    final char c = t.charAt(i);
+	    if (Character.isISOControl(c) || (wasSpace && c == ' '))
+		break;
+	    wasSpace = c == ' ';
+	}
+	if (i == len)
+	    return t;
+	final StringBuilder b = new StringBuilder(len);
+	b.append(t, 0, i);
+	for(;i < len;i++)
+	{
+	    char c = t.charAt(i);
+	    if (Character.isISOControl(c))
+		c = ' ';
+	    if (wasSpace && c == ' ')
+		continue;
+	    b.append(c);
+	    wasSpace = c == ' ';
+	}
+	return new String(b);
+    }
+}
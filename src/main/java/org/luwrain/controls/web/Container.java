@@ -2,7 +2,6 @@
 package org.luwrain.controls.web;
 
 import java.util.*;
-import java.awt.Rectangle;
 
 import org.luwrain.core.*;
 import org.luwrain.controls.block.*;
@@ -13,8 +12,10 @@ final class Container extends Block
     enum Type {LIST_ITEM, PARA, HEADING};
 
     final BrowserIterator it;
+    //The position of the node in the browser, stays the same in the following models of the page until the full rescan
+    final int pos;
     final TreeItem treeItem;
-    final String className;
+    final NodeKind kind;
     final String tagName;
     final Type type;
     final int x;
@@ -23,44 +24,38 @@ final class Container extends Block
     final int height;
 
     final ContentItem[] content;
+    //The container stands for the part of the page out of the model window, it is filled when the window moves to it
+    final boolean placeholder;
 
-    public Container(BrowserIterator it, TreeItem treeItem, ContentItem[] content)
+    public Container(PageSnapshot.Node node, TreeItem treeItem, ContentItem[] content)
     {
 	super(content);
-	NullCheck.notNull(it, "it");
+	NullCheck.notNull(node, "node");
 	NullCheck.notNull(treeItem, "treeItem");
-	this.it = it;
+	this.it = node.it;
+	this.pos = node.pos;
+	this.placeholder = node.placeholder;
 	this.treeItem = treeItem;
-	this.className = it.getClassName();
-	this.tagName = it.getTagName();
-	this.type = getType(className.trim().toLowerCase(), tagName.trim().toLowerCase());
+	this.kind = node.kind;
+	this.tagName = node.tagName;
+	this.type = getType(kind);
 	this.content = content;
-	final Rectangle rect = it.getRect();
-	if (rect == null)
-	{
-	    this.x = 0;
-	    this.y = 0;
-	    this.width = 0;
-	    this.height = 0;
-	    return;
-	}
-	this.x = rect.x;
-	this.y = rect.y;
-	this.width = rect.width;
-	this.height = rect.height;
+	this.x = node.x;
+	this.y = node.y;
+	this.width = node.width;
+	this.height = node.height;
     }
 
-    private Type getType(String className, String tagName)
+    static private Type getType(NodeKind kind)
     {
-	NullCheck.notNull(className, "className");
-	NullCheck.notNull(tagName, "tagName");
-	switch(className)
+	NullCheck.notNull(kind, "kind");
+	switch(kind)
 	{
-	case "li":
+	case LIST_ITEM:
 	    return Type.LIST_ITEM;
-	case "paragraph":
+	case PARAGRAPH:
 	    return Type.PARA;
-	case "heading":
+	case HEADING:
 	    return Type.HEADING;
 	}
 	return Type.PARA;
@@ -86,6 +81,45 @@ final class Container extends Block
 	intersects(y, height, c.y, c.height);
     }
 
+    /**
+     * Checks whether the given container shows the same as this one. The
+     * tags, the geometry and the content subtrees are compared, the nodes
+     * behind them may be different. The subtrees are walked without
+     * recursion.
+     *
+     * @param c The container to compare with
+     * @return True if the containers have the same content, false otherwise
+     */
+    boolean hasSameContent(Container c)
+    {
+	NullCheck.notNull(c, "c");
+	if (kind != c.kind || !tagName.equals(c.tagName) || placeholder != c.placeholder ||
+	    x != c.x || y != c.y || width != c.width || height != c.height ||
+	    content.length != c.content.length)
+	    return false;
+	final Deque<ContentItem> stack = new ArrayDeque<>();
+	for(int i = 0;i < content.length;i++)
+	{
+	    stack.push(content[i]);
+	    stack.push(c.content[i]);
+	}
+	while(!stack.isEmpty())
+	{
+	    final ContentItem item1 = stack.pop();
+	    final ContentItem item2 = stack.pop();
+	    if (item1.kind != item2.kind || !item1.tagName.equals(item2.tagName) ||
+		!item1.href.equals(item2.href) || !item1.getText().equals(item2.getText()) ||
+		item1.children.length != item2.children.length)
+		return false;
+	    for(int i = 0;i < item1.children.length;i++)
+	    {
+		stack.push(item1.children[i]);
+		stack.push(item2.children[i]);
+	    }
+	}
+	return true;
+    }
+
     int getGraphicalSquare()
     {
 	return width * height;
@@ -94,7 +128,7 @@ final class Container extends Block
     @Override public String toString()
     {
 	final StringBuilder b = new StringBuilder();
-	b.append(" <").append(it.getTagName()).append("> ");
+	b.append(" <").append(tagName).append("> ");
 	b.append("(gr:").append(String.format("%d,%d,%d,%d", x, y, x + width, y + height)).append(")");
 	return new String(b);
     }
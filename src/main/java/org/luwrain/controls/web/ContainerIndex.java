@@ -0,0 +1,300 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.controls.web;
+
+import java.util.*;
+
+import org.luwrain.core.*;
+
+/**
+ * The uniform grid over the rectangles of containers. Every container is
+ * put into all cells covered by its rectangle, so the geometrical
+ * queries check only the containers of the cells around the requested
+ * area instead of comparing all pairs. The index is built on the first
+ * geometrical query to the model and is never modified, so it may be
+ * used from any thread.
+ */
+final class ContainerIndex
+{
+    static private final int MAX_GRID_SIZE = 1024;
+
+    private final Container[] containers;
+    private final int minX;
+    private final int minY;
+    private final int cellWidth;
+    private final int cellHeight;
+    private final int cols;
+    private final int rows;
+    //Cells in rows, the indices of the containers of the cell i are in cellItems from cellStart[i] to cellStart[i + 1]
+    private final int[] cellStart;
+    private final int[] cellItems;
+
+    ContainerIndex(Container[] containers)
+    {
+	NullCheck.notNullItems(containers, "containers");
+	this.containers = containers.clone();
+	if (containers.length == 0)
+	{
+	    this.minX = 0;
+	    this.minY = 0;
+	    this.cellWidth = 1;
+	    this.cellHeight = 1;
+	    this.cols = 1;
+	    this.rows = 1;
+	    this.cellStart = new int[2];
+	    this.cellItems = new int[0];
+	    return;
+	}
+	int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+	for(Container c: containers)
+	{
+	    minX = Math.min(minX, c.x);
+	    minY = Math.min(minY, c.y);
+	    maxX = Math.max(maxX, right(c));
+	    maxY = Math.max(maxY, bottom(c));
+	}
+	this.minX = minX;
+	this.minY = minY;
+	//Approximately one container per cell
+	final int gridSize = Math.max(1, Math.min(MAX_GRID_SIZE, (int)Math.ceil(Math.sqrt(containers.length))));
+	this.cellWidth = Math.max(1, (int)(((long)maxX - minX) / gridSize) + 1);
+	this.cellHeight = Math.max(1, (int)(((long)maxY - minY) / gridSize) + 1);
+	this.cols = (int)(((long)maxX - minX) / cellWidth) + 1;
+	this.rows = (int)(((long)maxY - minY) / cellHeight) + 1;
+	//Counting the containers of every cell and then filling them in two passes
+	final int[] cellStart = new int[cols * rows + 1];
+	for(Container c: containers)
+	    for(int row = rowOf(c.y);row <= rowOf(bottom(c));row++)
+		for(int col = colOf(c.x);col <= colOf(right(c));col++)
+		    cellStart[row * cols + col + 1]++;
+	for(int i = 1;i < cellStart.length;i++)
+	    cellStart[i] += cellStart[i - 1];
+	final int[] cellItems = new int[cellStart[cellStart.length - 1]];
+	final int[] fill = Arrays.copyOf(cellStart, cellStart.length - 1);
+	for(int i = 0;i < containers.length;i++)
+	{
+	    final Container c = containers[i];
+	    for(int row = rowOf(c.y);row <= rowOf(bottom(c));row++)
+		for(int col = colOf(c.x);col <= colOf(right(c));col++)
+		    cellItems[fill[row * cols + col]++] = i;
+	}
+	this.cellStart = cellStart;
+	this.cellItems = cellItems;
+    }
+
+    int getContainerCount()
+    {
+	return containers.length;
+    }
+
+    /**
+     * Returns the containers intersecting the given one in the sense of
+     * {@code Container.intersectsGraphically()}. The given container itself
+     * isn't included. The result is in the order of containers in the model.
+     *
+     * @param c The container to find the intersections with
+     * @return The intersecting containers
+     */
+    Container[] getIntersecting(Container c)
+    {
+	NullCheck.notNull(c, "c");
+	final List<Container> res = new ArrayList<>();
+	final int row1 = rowOf(c.y), row2 = rowOf(bottom(c));
+	final int col1 = colOf(c.x), col2 = colOf(right(c));
+	final int[] found = collect(row1, row2, col1, col2, c.x, c.y);
+	for(int i: found)
+	{
+	    final Container cc = containers[i];
+	    if (cc != c && c.intersectsGraphically(cc))
+		res.add(cc);
+	}
+	return res.toArray(new Container[res.size()]);
+    }
+
+    /**
+     * Returns the containers whose vertical span includes the given
+     * coordinate, i.e. the containers lying on the visual line at this
+     * height. The containers of zero height are on the line only if their
+     * top is exactly at the given coordinate. The result is sorted from
+     * left to right.
+     *
+     * @param y The vertical coordinate of the line
+     * @return The containers of the line
+     */
+    Container[] getOnLine(int y)
+    {
+	if (y < minY || containers.length == 0)
+	    return new Container[0];
+	final int row = rowOf(y);
+	if (row >= rows)
+	    return new Container[0];
+	final List<Container> res = new ArrayList<>();
+	//A container may be in several cells of the row, taking it only from the cell of its left edge
+	for(int col = 0;col < cols;col++)
+	    for(int k = cellStart[row * cols + col];k < cellStart[row * cols + col + 1];k++)
+	    {
+		final Container c = containers[cellItems[k]];
+		if (colOf(c.x) == col && onLine(c, y))
+		    res.add(c);
+	    }
+	Collections.sort(res, (c1, c2)->{
+		if (c1.x != c2.x)
+		    return Integer.compare(c1.x, c2.x);
+		return Integer.compare(c1.y, c2.y);
+	    });
+	return res.toArray(new Container[res.size()]);
+    }
+
+    /**
+     * Finds the nearest container to the right of the given one, which
+     * shares at least one visual line with it. The containers starting at
+     * the same horizontal position are preferred by the upper edge.
+     *
+     * @param c The container to start from
+     * @return The container to the right or null if there is no such container
+     */
+    Container getNextRight(Container c)
+    {
+	NullCheck.notNull(c, "c");
+	final int row1 = rowOf(c.y), row2 = rowOf(bottom(c));
+	Container best = null;
+	for(int col = colOf(right(c));col < cols;col++)
+	{
+	    //The containers of the following columns can't be closer than the found one
+	    if (best != null && best.x < minX + (long)col * cellWidth)
+		break;
+	    for(int row = row1;row <= row2;row++)
+		for(int k = cellStart[row * cols + col];k < cellStart[row * cols + col + 1];k++)
+		{
+		    final Container cc = containers[cellItems[k]];
+		    if (cc == c || cc.x < right(c) || !overlaps(c.y, bottom(c), cc.y, bottom(cc)))
+			continue;
+		    if (best == null || cc.x < best.x || (cc.x == best.x && cc.y < best.y))
+			best = cc;
+		}
+	}
+	return best;
+    }
+
+    /**
+     * Finds the nearest container below the given one, which shares at
+     * least one horizontal position with it. The containers starting at
+     * the same vertical position are preferred by the left edge.
+     *
+     * @param c The container to start from
+     * @return The container below or null if there is no such container
+     */
+    Container getNextBelow(Container c)
+    {
+	NullCheck.notNull(c, "c");
+	final int col1 = colOf(c.x), col2 = colOf(right(c));
+	Container best = null;
+	for(int row = rowOf(bottom(c));row < rows;row++)
+	{
+	    if (best != null && best.y < minY + (long)row * cellHeight)
+		break;
+	    for(int col = col1;col <= col2;col++)
+		for(int k = cellStart[row * cols + col];k < cellStart[row * cols + col + 1];k++)
+		{
+		    final Container cc = containers[cellItems[k]];
+		    if (cc == c || cc.y < bottom(c) || !overlaps(c.x, right(c), cc.x, right(cc)))
+			continue;
+		    if (best == null || cc.y < best.y || (cc.y == best.y && cc.x < best.x))
+			best = cc;
+		}
+	}
+	return best;
+    }
+
+    //Indices of the containers in the given cells, every container is taken once from the cell with the corner of the intersection
+    private int[] collect(int row1, int row2, int col1, int col2, int x, int y)
+    {
+	row2 = Math.min(row2, rows - 1);
+	col2 = Math.min(col2, cols - 1);
+	final IntArray res = new IntArray();
+	for(int row = Math.max(row1, 0);row <= row2;row++)
+	    for(int col = Math.max(col1, 0);col <= col2;col++)
+		for(int k = cellStart[row * cols + col];k < cellStart[row * cols + col + 1];k++)
+		{
+		    final Container c = containers[cellItems[k]];
+		    if (rowOf(Math.max(y, c.y)) == row && colOf(Math.max(x, c.x)) == col)
+			res.add(cellItems[k]);
+		}
+	final int[] items = res.toArray();
+	Arrays.sort(items);
+	return items;
+    }
+
+    private int colOf(int x)
+    {
+	if (x <= minX)
+	    return 0;
+	return (int)Math.min(((long)x - minX) / cellWidth, cols - 1);
+    }
+
+    private int rowOf(int y)
+    {
+	if (y <= minY)
+	    return 0;
+	return (int)Math.min(((long)y - minY) / cellHeight, rows - 1);
+    }
+
+    static private int right(Container c)
+    {
+	return c.x + Math.max(c.width, 0);
+    }
+
+    static private int bottom(Container c)
+    {
+	return c.y + Math.max(c.height, 0);
+    }
+
+    static private boolean onLine(Container c, int y)
+    {
+	if (c.height <= 0)
+	    return c.y == y;
+	return y >= c.y && y < c.y + c.height;
+    }
+
+    //Intersection of the half-open spans, the empty span is treated as the point
+    static private boolean overlaps(int from1, int to1, int from2, int to2)
+    {
+	if (from1 == to1)
+	    return from1 >= from2 && (from1 < to2 || from2 == to2 && from1 == from2);
+	if (from2 == to2)
+	    return from2 >= from1 && from2 < to1;
+	return from1 < to2 && from2 < to1;
+    }
+
+    static private final class IntArray
+    {
+	private int[] items = new int[16];
+	private int size = 0;
+
+	void add(int value)
+	{
+	    if (size == items.length)
+		items = Arrays.copyOf(items, size * 2);
+	    items[size++] = value;
+	}
+
+	int[] toArray()
+	{
+	    return Arrays.copyOf(items, size);
+	}
+    }
+}
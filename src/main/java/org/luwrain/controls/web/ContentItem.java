@@ -11,7 +11,7 @@ final class ContentItem implements BlockObject
 {
     final BrowserIterator it;
     final String href;
-    final String className;
+    final NodeKind kind;
     final String tagName;
     final String text;
     final String role;
@@ -19,30 +19,30 @@ final class ContentItem implements BlockObject
     private final Map<String, String> attrs;
     final ContentItem[] children;
 
-    ContentItem(BrowserIterator it, ContentItem[] children, String href)
+    ContentItem(PageSnapshot.Node node, ContentItem[] children, String href)
     {
-	NullCheck.notNull(it, "it");
+	NullCheck.notNull(node, "node");
 	NullCheck.notNullItems(children, "children");
 	NullCheck.notNull(href, "href");
-	this.it = it;
+	this.it = node.it;
 		this.children = children;
-	this.className = it.getClassName();
-	this.tagName = it.getTagName();
+	this.kind = node.kind;
+	this.tagName = node.tagName;
 	this.href = href.trim();
-	this.text = prepareText(it.getText());
-	this.attrs = it.getAttrs();
+	this.text = node.text;
+	this.attrs = node.attrs;
 	this.role = attrs.containsKey("role")?attrs.get("role"):"";
 		this.ariaLabel = attrs.containsKey("aria-label")?attrs.get("aria-label"):"";
     }
 
     boolean isBr()
     {
-	return className.equals(Classes.BR);
+	return kind == NodeKind.BR;
     }
 
     boolean isText()
     {
-	return className.equals(Classes.TEXT);
+	return kind == NodeKind.TEXT;
     }
 
         @Override public String getText()
@@ -52,7 +52,7 @@ final class ContentItem implements BlockObject
 
     boolean isImage()
     {
-	if (className.equals(Classes.IMAGE))
+	if (kind == NodeKind.IMAGE)
 	    return true;
 	if (tagName.toLowerCase().equals("svg"))
 	    return true;
@@ -81,7 +81,7 @@ final class ContentItem implements BlockObject
 
     boolean isButton()
     {
-	if (className.equals(Classes.BUTTON))
+	if (kind == NodeKind.BUTTON)
 	    return true;
 	if (attrs.containsKey("role"))
 	{
@@ -119,22 +119,4 @@ final class ContentItem implements BlockObject
 	b.append("</" + tagName + ">");
 	return new String(b);
     }
-
-    static private String  prepareText(String text)
-    {
-	NullCheck.notNull(text, "text");
-	String res = "";
-	boolean wasSpace = false;
-	for(int i = 0;i < text.length();++i)
-	{
-char c = text.charAt(i);
-	    if (Character.isISOControl(c))
-		c = ' ';
-	    if (wasSpace && Character.isSpace(c))
-		continue;
-	    		res += c;
-			wasSpace = Character.isSpace(c);
-	}
-	return res;
-    }
 }
@@ -80,6 +80,11 @@ final class Events implements org.luwrain.browser.BrowserEvents
     	return true;
     }
 
+    @Override public void onPageChanged()
+    {
+	clientThread.runAsync(()->area.onPageChanged());
+    }
+
     @Override public Boolean onConfirm(String message)
     {
 	if (message == null)
@@ -0,0 +1,81 @@
+/*
+   Copyright 2012-2018 Michael Pozhidaev <michael.pozhidaev@gmail.com>
+   Copyright 2015-2016 Roman Volovodov <gr.rPman@gmail.com>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.controls.web;
+
+import java.io.*;
+
+import org.luwrain.core.*;
+import org.luwrain.browser.*;
+
+//Takes snapshots of the page opened in the browser on its thread
+final class LivePageSource implements PageSource
+{
+    private final Browser browser;
+    private final TextNormalizer normalizer;
+    //The vertical span of the page to take, null means the whole page
+    private volatile int[] window = null;
+
+    LivePageSource(Browser browser, TextNormalizer normalizer)
+    {
+	NullCheck.notNull(browser, "browser");
+	NullCheck.notNull(normalizer, "normalizer");
+	this.browser = browser;
+	this.normalizer = normalizer;
+    }
+
+    /**
+     * Restricts the following snapshots to the given vertical span of the
+     * page.
+     *
+     * @param top The upper bound of the span
+     * @param bottom The lower bound of the span, exclusive
+     */
+    void setWindow(int top, int bottom)
+    {
+	if (top > bottom)
+	    throw new IllegalArgumentException("top (" + top + ") may not be greater than bottom (" + bottom + ")");
+	this.window = new int[]{top, bottom};
+    }
+
+    @Override public PageSnapshot getSnapshot() throws IOException
+    {
+	final int[] window = this.window;
+	final Object obj = browser.runSafely(()->{
+		try {
+		    final long startTime = System.nanoTime();
+		    final PageSnapshot snapshot = window != null?PageSnapshot.take(browser, normalizer, window[0], window[1]):PageSnapshot.take(browser, normalizer);
+		    browser.getMetrics().add(BrowserMetrics.Type.MODEL_SNAPSHOT, (System.nanoTime() - startTime) / 1000);
+		    return snapshot;
+		}
+		catch(Throwable e)
+		{
+		    Log.error(WebArea.LOG_COMPONENT, "taking of the page snapshot failed:" + e.getClass().getName() + ":" + e.getMessage());
+		    e.printStackTrace();
+		    return null;
+		}
+	    });
+	if (obj == null || !(obj instanceof PageSnapshot))
+	    throw new IOException("unable to take the snapshot of the page");
+	return (PageSnapshot)obj;
+    }
+
+    @Override public BrowserMetrics getMetrics()
+    {
+	return browser.getMetrics();
+    }
+}
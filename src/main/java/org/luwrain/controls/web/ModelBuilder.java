@@ -19,254 +19,338 @@ package org.luwrain.controls.web;
 
 import java.util.*;
 import java.io.*;
-import java.awt.Rectangle;
-
-import com.google.gson.*;
-import com.google.gson.stream.*;
 
 import org.luwrain.core.*;
 import org.luwrain.browser.*;
 
+/**
+ * Builds containers of the web area from the snapshot of the page. The
+ * builder doesn't touch the page, so it may work on any thread. The
+ * containers are given to the listener in portions in the document
+ * order, so that the beginning of the page may be shown before the end
+ * of the building.
+ */
 final class ModelBuilder
 {
     static final String LOG_COMPONENT = "web";
+    static private final int FIRST_PORTION_SIZE = 32;
+    //The mark of the line separator in the stack of Item.toString(), never a complement of a node index
+    static private final int SEPARATOR = Integer.MIN_VALUE;
 
-    Container[] build(Browser browser)
+    interface Listener
     {
-	NullCheck.notNull(browser, "browser");
-	final int count = browser.getElementCount();
-	final Item[] items = new Item[count];
-	Item root = null;
-	final BrowserIterator it = browser.createIterator();
-	for(int i = 0;i < count;++i)
-	{
-	    it.setPos(i);
-	    items[i] = new Item(it.clone());
-	}
+	/**
+	 * Receives all containers built so far. The array is never modified
+	 * after the call.
+	 *
+	 * @param containers The containers from the beginning of the page
+	 * @param complete True if the building is finished
+	 * @return False if the building should be stopped, true otherwise
+	 */
+	boolean onContainers(Container[] containers, boolean complete);
+    }
 
-	try {
-	Gson gson = new Gson();
-	JsonWriter writer = new JsonWriter(new FileWriter("/tmp/json"));
-			    writer.beginArray();
-			    for(int i = 0;i < items.length;++i)
-		{
-		    final Item item = items[i];
-		    writer.beginObject();
-		    writer.name("id").value(i);
-		    writer.name("tag").value(item.tagName);
-		    writer.name("class").value(item.className);
+    private final PageSnapshot snapshot;
+    private final BrowserMetrics metrics;
 
-		    	    final Rectangle rect = item.it.getRect();
-	    if (rect != null)
-	    {
-		writer.name("x").value(rect.x);
-				writer.name("y").value(rect.y);
-								writer.name("width").value(rect.width);
-																writer.name("height").value(rect.height);
-	    }
-	    if (item.it.getParent() != null)
-		writer.name("parent").value(item.it.getParent().getPos());
+    //The tree of the snapshot, indexed by positions of nodes in the document order
+    private PageSnapshot.Node[] nodes = null;
+    private int[] parent = null;
+    //Children of the node k are children[childStart[k]] .. children[childStart[k + 1] - 1]
+    private int[] childStart = null;
+    private int[] children = null;
+    //Visible content children in the same layout
+    private int[] contentStart = null;
+    private int[] contentChildren = null;
+    private String[] hrefs = null;
+    //Content items which are created, but not given to their parents yet
+    private ContentItem[] contentItems = null;
 
-	    if (item.className.toLowerCase().equals("text"))
-		writer.name("text").value(item.it.getText());
-	    	    System.out.println("" + i);
-	    if (!item.tagName.equals("html"))
-	    writer.name("style").value(item.it.getAllComputedStyles());
-	    
-	    
-	    writer.name("attrs");
-	    writer.beginObject();
-	    	    for(Map.Entry<String, String> e: item.it.getAttrs().entrySet())
-	    		writer.name(e.getKey()).value(e.getValue());
-	    writer.endObject();
-		    writer.endObject();
-		}
-		writer.endArray();
-		writer.close();
-	
-	}
-	catch(Exception e)
-	{
-	    e.printStackTrace();
-	}
-	
-	for(Item i: items)
+    ModelBuilder(PageSnapshot snapshot, BrowserMetrics metrics)
+    {
+	NullCheck.notNull(snapshot, "snapshot");
+	NullCheck.notNull(metrics, "metrics");
+	this.snapshot = snapshot;
+	this.metrics = metrics;
+    }
+
+    ModelBuilder(PageSource source) throws IOException
+    {
+	this(source.getSnapshot(), source.getMetrics());
+    }
+
+    Container[] build()
+    {
+	return build((containers, complete)->true);
+    }
+
+    //Returns null if the listener stopped the building
+    Container[] build(Listener listener)
+    {
+	NullCheck.notNull(listener, "listener");
+	final long startTime = System.nanoTime();
+	final int root = makeTree();
+	if (root >= 0)
+	    Log.debug(LOG_COMPONENT, "root tag <" + nodes[root].tagName + ">"); else
+	    Log.warning(LOG_COMPONENT, "no root item");
+	final Container[] res = createContainers(listener);
+	if (res == null)
+	    return null;
+	metrics.add(BrowserMetrics.Type.MODEL_BUILD, (System.nanoTime() - startTime) / 1000);
+	if (!listener.onContainers(res, true))
+	    return null;
+	return res;
+    }
+
+    /**
+     * Fills the arrays of the tree. Both kinds of children are saved in
+     * the document order into the shared buffers, so there are no
+     * collections per node. The links are inherited from anchors in the
+     * same pass, since parents always precede their children in the
+     * document order.
+     *
+     * @return The index of the root node or -1 if there is no root
+     */
+    private int makeTree()
+    {
+	final int[] order = snapshot.getOrder();
+	final int count = order.length;
+	final int[] index = new int[snapshot.getCapacity()];
+	Arrays.fill(index, -1);
+	for(int k = 0;k < count;k++)
+	    index[order[k]] = k;
+	this.nodes = new PageSnapshot.Node[count];
+	this.parent = new int[count];
+	this.childStart = new int[count + 1];
+	this.contentStart = new int[count + 1];
+	//Only the nodes under the root get links, null means the node is out of the root
+	this.hrefs = new String[count];
+	this.contentItems = new ContentItem[count];
+	int root = -1;
+	for(int k = 0;k < count;k++)
 	{
-	    if (i.className.equals(Classes.DOCUMENT_TYPE))
+	    final PageSnapshot.Node node = snapshot.get(order[k]);
+	    nodes[k] = node;
+	    parent[k] = -1;
+	    if (node.kind == NodeKind.DOCUMENT_TYPE)
 		continue;
-	    final BrowserIterator parentIt = i.it.getParent();
-	    if (parentIt == null)
+	    final int p = node.parentPos >= 0 && node.parentPos < index.length?index[node.parentPos]:-1;
+	    if (p < 0)
 	    {
-		if (root == null)
-		    root = i; else
+		if (root < 0)
+		{
+		    root = k;
+		    hrefs[k] = getHref(node, "");
+		} else
 		    Log.warning(LOG_COMPONENT, "the node without a parent");
 		continue;
 	    }
-	    final int parentPos = parentIt.getPos();
-	    items[parentPos].children.add(i);
-	    if (i.content && i.visible)
-		items[parentPos].contentItems.add(i);
-	    i.parent = items[parentPos];
+	    parent[k] = p;
+	    if (hrefs[p] != null)
+		hrefs[k] = getHref(node, hrefs[p]);
+	    //Counting at first, the offsets are calculated below
+	    childStart[p + 1]++;
+	    if (node.content && node.visible)
+		contentStart[p + 1]++;
 	}
-	if (root != null)
-	    Log.debug(LOG_COMPONENT, "root tag <" + root.tagName + ">"); else
-	    Log.warning(LOG_COMPONENT, "no root item");
-	if (root != null)
-	    setHrefs(root, "");
-	return createContainers(items, root);
+	for(int k = 0;k < count;k++)
+	{
+	    childStart[k + 1] += childStart[k];
+	    contentStart[k + 1] += contentStart[k];
+	    if (hrefs[k] == null)
+		hrefs[k] = "";
+	}
+	this.children = new int[childStart[count]];
+	this.contentChildren = new int[contentStart[count]];
+	final int[] childPos = Arrays.copyOf(childStart, count);
+	final int[] contentPos = Arrays.copyOf(contentStart, count);
+	for(int k = 0;k < count;k++)
+	{
+	    final int p = parent[k];
+	    if (p < 0)
+		continue;
+	    children[childPos[p]++] = k;
+	    if (nodes[k].content && nodes[k].visible)
+		contentChildren[contentPos[p]++] = k;
+	}
+	return root;
     }
 
-    private void setHrefs(Item item, String href)
+    //Anchors give their links to all nodes inside them
+    static private String getHref(PageSnapshot.Node node, String parentHref)
     {
-	NullCheck.notNull(item, "item");
-	NullCheck.notNull(href, "href");
-	final String current;
-	if (item.className.equals(Classes.ANCHOR))
-	{
-	    final String hrefAttr = item.it.getAttr("href");
-	    if (hrefAttr != null)
-		current = hrefAttr; else
-		current = "";
-	} else
-	    current = href;
-	item.href = current;
-	for(Item i: item.children)
-	    setHrefs(i, current);
+	if (node.kind != NodeKind.ANCHOR)
+	    return parentHref;
+	final String hrefAttr = node.attrs.get("href");
+	return hrefAttr != null?hrefAttr:"";
     }
 
-    private Container[] createContainers(Item[] items, Item root)
+    //Returns null if the listener stopped the building
+    private Container[] createContainers(Listener listener)
     {
-	NullCheck.notNullItems(items, "items");
-	//NullCheck.notNull(root, "root");
-	final List<Container> res = new LinkedList();
-	for(Item i: items)
+	NullCheck.notNull(listener, "listener");
+	final List<Container> res = new ArrayList<>();
+	//Every next portion is twice larger, so that the area lays out all containers only a few times
+	int nextPortion = FIRST_PORTION_SIZE;
+	for(int k = 0;k < nodes.length;k++)
 	{
-	    if (i.contentItems.isEmpty() || i.content)
+	    //The placeholder shows only the beginning of the text of the skipped part of the page
+	    if (nodes[k].placeholder)
+		res.add(new Container(nodes[k], new Item(k), new ContentItem[]{new ContentItem(nodes[k], new ContentItem[0], hrefs[k])})); else
+		if (isContainer(k))
+		    res.add(new Container(nodes[k], new Item(k), createContentChildren(k))); else
+		    continue;
+	    if (res.size() < nextPortion)
 		continue;
-	    switch(i.className.toLowerCase())//FIXME:
-	    {
-	    case "title":
-	    case "script":
-	    case "noscript":
-	    case "style":
-		continue;
-	    }
-	    res.add(new Container(i.it, i, i.createContentItem().children));
+	    if (!listener.onContainers(res.toArray(new Container[res.size()]), false))
+		return null;
+	    nextPortion *= 2;
 	}
 	return res.toArray(new Container[res.size()]);
     }
 
-    static private final class Item implements TreeItem
+    private boolean isContainer(int k)
+    {
+	if (contentStart[k] == contentStart[k + 1] || nodes[k].content)
+	    return false;
+	switch(nodes[k].kind)
+	{
+	case TITLE:
+	case SCRIPT:
+	case STYLE:
+	    return false;
+	default:
+	    return true;
+	}
+    }
+
+    /**
+     * Creates content items of the visible content subtree of the node.
+     * The subtree is collected without recursion, so that any nesting
+     * depth is safe, then the items are created from the end, so that the
+     * children of every item are ready before the item itself.
+     */
+    private ContentItem[] createContentChildren(int k)
     {
-	final BrowserIterator it;
-	final boolean content;
-	final boolean visible;
-	final String tagName;
-	final String className;
+	final IntStack stack = new IntStack();
+	final IntStack subtree = new IntStack();
+	for(int i = contentStart[k];i < contentStart[k + 1];i++)
+	    stack.push(contentChildren[i]);
+	while(!stack.isEmpty())
+	{
+	    final int c = stack.pop();
+	    subtree.push(c);
+	    for(int i = contentStart[c];i < contentStart[c + 1];i++)
+		stack.push(contentChildren[i]);
+	}
+	while(!subtree.isEmpty())
+	{
+	    final int c = subtree.pop();
+	    contentItems[c] = new ContentItem(nodes[c], takeContentChildren(c), hrefs[c]);
+	}
+	return takeContentChildren(k);
+    }
 
-	String href = "";
-	Item parent = null;
-	final List<Item> children = new LinkedList();
-	final List<Item> contentItems = new LinkedList();
+    private ContentItem[] takeContentChildren(int k)
+    {
+	final ContentItem[] res = new ContentItem[contentStart[k + 1] - contentStart[k]];
+	for(int i = 0;i < res.length;i++)
+	{
+	    final int c = contentChildren[contentStart[k] + i];
+	    res[i] = contentItems[c];
+	    contentItems[c] = null;
+	}
+	return res;
+    }
 
-	Item(BrowserIterator it)
+    //The view of one node of the tree, created only for containers and on navigation
+    private final class Item implements TreeItem
+    {
+	final int index;
+
+	Item(int index)
 	{
-	    NullCheck.notNull(it, "it");
-	    this.it = it;
-	    this.content = isContentNode(it);
-	    if (content)
-		this.visible = isVisible(it); else
-		this.visible = true;
-	    this.className = it.getClassName();
-	    this.tagName = it.getTagName();
+	    this.index = index;
 	}
 
 	@Override public TreeItem getParentItem()
 	{
-	    return parent;
+	    return parent[index] >= 0?new Item(parent[index]):null;
 	}
 
 	@Override public TreeItem[] getChildren()
 	{
-	    return children.toArray(new TreeItem[children.size()]);
+	    final TreeItem[] res = new TreeItem[childStart[index + 1] - childStart[index]];
+	    for(int i = 0;i < res.length;i++)
+		res[i] = new Item(children[childStart[index] + i]);
+	    return res;
 	}
 
 	@Override public Map<String, String> getItemAttrs()
 	{
-	    return it.getAttrs();
-	}
-
-	ContentItem createContentItem()
-	{
-	    final List<ContentItem> c = new LinkedList();
-	    for(Item i: contentItems)
-		c.add(i.createContentItem());
-	    return new ContentItem(it, c.toArray(new ContentItem[c.size()]), href);
+	    return nodes[index].attrs;
 	}
 
-	static private boolean isContentNode(BrowserIterator it)
+	//Walks the subtree with the explicit stack: node indices open tags, their complements close them
+	@Override public String toString()
 	{
-	    NullCheck.notNull(it, "it");
-	    final String role = it.getAttr("role");
-	    if (role != null && role.toLowerCase().equals("img"))
-		return true;
-	    final String className = it.getClassName();
-	    switch(className)
+	    final StringBuilder b = new StringBuilder();
+	    final IntStack stack = new IntStack();
+	    stack.push(index);
+	    while(!stack.isEmpty())
 	    {
-	    case Classes.BUTTON:
-	    case Classes.INPUT:
-	    case Classes.IMAGE:
-	    case Classes.BR:
-	    case Classes.ANCHOR:
-	    case Classes.TEXT:
-		return true;
-	    case "":
+		final int k = stack.pop();
+		if (k == SEPARATOR)
+		{
+		    b.append(System.lineSeparator());
+		    continue;
+		}
+		if (k < 0)
+		{
+		    b.append("</").append(nodes[~k].tagName).append(">");
+		    continue;
+		}
+		final PageSnapshot.Node node = nodes[k];
+		if (node.kind == NodeKind.TEXT)
+		{
+		    b.append(node.text);
+		    continue;
+		}
+		b.append("<").append(node.tagName);
+		for(Map.Entry<String, String> e: node.attrs.entrySet())
+		    b.append (System.lineSeparator()).append("  ").append(e.getKey()).append("=").append(e.getValue());
+		b.append(">").append(System.lineSeparator());
+		stack.push(~k);
+		for(int i = childStart[k + 1] - 1;i >= childStart[k];i--)
 		{
-		    final String tagName = it.getTagName();
-		    if (tagName == null)
-			return false;
-		    switch(tagName.toLowerCase())
-		    {
-		    case "em":
-		    case "strong":
-		    case "b":
-		    case "span":
-		    case "svg":
-			return true;
-		    default:
-			return false;
-		    }
+		    stack.push(SEPARATOR);
+		    stack.push(children[i]);
 		}
 	    }
-	    return false;
+	    return new String(b);
 	}
+    }
+
+    static private final class IntStack
+    {
+	private int[] items = new int[32];
+	private int size = 0;
 
-	static private boolean isVisible(BrowserIterator it)
+	void push(int value)
 	{
-	    if (it.getClassName().equals(Classes.BR))
-		return true;
-	    if (it.getComputedStyle("visibility").toLowerCase().equals("hidden"))
-		return false;
-	    final Rectangle rect = it.getRect();
-	    if (rect == null)
-		return false;
-	    return rect.width > 0 && rect.height > 0;
+	    if (size == items.length)
+		items = Arrays.copyOf(items, size * 2);
+	    items[size++] = value;
 	}
 
-	@Override public String toString()
+	int pop()
 	{
-	    if (className.equals(Classes.TEXT))
-		return it.getText();
-	    final Map<String, String> attrs = it.getAttrs();
-	    final StringBuilder b = new StringBuilder();
-	    b.append("<").append(tagName);
-	    for(Map.Entry<String, String> e: attrs.entrySet())
-		b.append (System.lineSeparator()).append("  ").append(e.getKey()).append("=").append(e.getValue());
-	    b.append(">").append(System.lineSeparator());
-	    for(Item c: children)
-		b.append(c.toString()).append(System.lineSeparator());
-	    b.append("</").append(tagName).append(">");
-	    return new String(b);
+	    return items[--size];
+	}
+
+	boolean isEmpty()
+	{
+	    return size == 0;
 	}
     }
 }
@@ -0,0 +1,427 @@
+/*
+   Copyright 2012-2018 Michael Pozhidaev <michael.pozhidaev@gmail.com>
+   Copyright 2015-2016 Roman Volovodov <gr.rPman@gmail.com>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.controls.web;
+
+import java.util.*;
+import java.awt.Rectangle;
+
+import org.luwrain.core.*;
+import org.luwrain.browser.*;
+
+/**
+ * The facts about the page needed for building the model. The snapshot
+ * is taken on the thread of the browser as fast as possible, after that
+ * the model is built from it in the background without touching the
+ * page. The snapshot is never changed after its creation.
+ */
+final class PageSnapshot
+{
+    //Subtrees of this size and smaller are taken into the window without checking the geometry of their nodes
+    static private final int SMALL_SUBTREE_SIZE = 64;
+    //The length of the beginning of the text kept for the placeholder of the skipped subtrees
+    static final int PLACEHOLDER_TEXT_LENGTH = 80;
+
+    static final class Node
+    {
+	//For actions on the browser thread only, null for read snapshots and for nodes which never become content items or containers
+	final BrowserIterator it;
+	final int pos;
+	final int parentPos;
+	final NodeKind kind;
+	final String tagName;
+	final Map<String, String> attrs;
+	final boolean content;
+	final boolean visible;
+	//The node stands for the skipped sibling subtrees out of the window, their descendants aren't taken
+	final boolean placeholder;
+	//Taken for content nodes and placeholders only, already normalized by the creator of the snapshot
+	final String text;
+	//Taken for visible content nodes and their parents only
+	final boolean rectKnown;
+	final int x, y, width, height;
+
+	//The iterator is kept only for nodes which may need actions, the other nodes have null
+	private Node(BrowserIterator it, boolean keepIterator, boolean content, boolean visible, boolean placeholder, String text, Rectangle rect)
+	{
+	    this(keepIterator?it.clone():null, it.getPos(), it.getParentPos(), it.getNodeKind(), it.getTagName(), it.getAttrs(),
+		 content, visible, placeholder, text, rect);
+	}
+
+	Node(BrowserIterator it, int pos, int parentPos, NodeKind kind, String tagName, Map<String, String> attrs,
+	     boolean content, boolean visible, String text, Rectangle rect)
+	{
+	    this(it, pos, parentPos, kind, tagName, attrs, content, visible, false, text, rect);
+	}
+
+	Node(BrowserIterator it, int pos, int parentPos, NodeKind kind, String tagName, Map<String, String> attrs,
+	     boolean content, boolean visible, boolean placeholder, String text, Rectangle rect)
+	{
+	    NullCheck.notNull(kind, "kind");
+	    NullCheck.notNull(tagName, "tagName");
+	    NullCheck.notNull(attrs, "attrs");
+	    NullCheck.notNull(text, "text");
+	    if (pos < 0)
+		throw new IllegalArgumentException("pos (" + pos + ") may not be negative");
+	    if (placeholder && content)
+		throw new IllegalArgumentException("the placeholder may not be a content node");
+	    this.it = it;
+	    this.pos = pos;
+	    this.parentPos = parentPos >= 0?parentPos:-1;
+	    this.kind = kind;
+	    this.tagName = tagName;
+	    this.attrs = attrs;
+	    this.content = content;
+	    this.visible = visible;
+	    this.placeholder = placeholder;
+	    this.text = text;
+	    this.rectKnown = rect != null;
+	    this.x = rect != null?rect.x:0;
+	    this.y = rect != null?rect.y:0;
+	    this.width = rect != null?rect.width:0;
+	    this.height = rect != null?rect.height:0;
+	}
+    }
+
+    //Indexed by node positions, the removed nodes are null
+    private final Node[] nodes;
+    private final int[] order;
+
+    /**
+     * Creates the snapshot of the given nodes. The positions of the nodes
+     * must be unique.
+     *
+     * @param nodes The nodes in the document order
+     */
+    PageSnapshot(Node[] nodes)
+    {
+	NullCheck.notNullItems(nodes, "nodes");
+	int capacity = 0;
+	for(Node n: nodes)
+	    capacity = Math.max(capacity, n.pos + 1);
+	this.nodes = new Node[capacity];
+	this.order = new int[nodes.length];
+	for(int i = 0;i < nodes.length;i++)
+	{
+	    if (this.nodes[nodes[i].pos] != null)
+		throw new IllegalArgumentException("two nodes with the position " + nodes[i].pos);
+	    this.nodes[nodes[i].pos] = nodes[i];
+	    order[i] = nodes[i].pos;
+	}
+    }
+
+    private PageSnapshot(Node[] nodes, int[] order)
+    {
+	this.nodes = nodes;
+	this.order = order;
+    }
+
+    Node get(int pos)
+    {
+	return pos >= 0 && pos < nodes.length?nodes[pos]:null;
+    }
+
+    //Positions of all nodes in the document order
+    int[] getOrder()
+    {
+	return order.clone();
+    }
+
+    int getNodeCount()
+    {
+	return order.length;
+    }
+
+    //The upper bound of node positions
+    int getCapacity()
+    {
+	return nodes.length;
+    }
+
+    /**
+     * Takes the snapshot of the current page. Rectangles and styles are
+     * fetched in bulk for the nodes which need them only. This method must
+     * be called on the browser thread.
+     */
+    static PageSnapshot take(Browser browser)
+    {
+	return take(browser, TextNormalizer.DEFAULT);
+    }
+
+    static PageSnapshot take(Browser browser, TextNormalizer normalizer)
+    {
+	return take(browser, normalizer, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Takes the snapshot of the given vertical span of the current page.
+     * The subtrees lying completely out of the span aren't taken, every run
+     * of such sibling subtrees is replaced with one placeholder node with
+     * their common rectangle and the beginning of their text. So the time
+     * and the memory needed for the snapshot and for the model depend on
+     * the size of the span, not on the length of the page. This method
+     * must be called on the browser thread.
+     *
+     * @param browser The browser with the page
+     * @param normalizer The normalizer for the texts of content nodes
+     * @param top The upper bound of the span
+     * @param bottom The lower bound of the span, exclusive
+     * @return The snapshot of the span
+     */
+    static PageSnapshot take(Browser browser, TextNormalizer normalizer, int top, int bottom)
+    {
+	NullCheck.notNull(browser, "browser");
+	NullCheck.notNull(normalizer, "normalizer");
+	if (top > bottom)
+	    throw new IllegalArgumentException("top (" + top + ") may not be greater than bottom (" + bottom + ")");
+	final Map<Integer, Rectangle> placeholders = new HashMap<>();
+	final int[] order = (top == Integer.MIN_VALUE && bottom == Integer.MAX_VALUE)?browser.getDocumentOrder():selectNodes(browser, top, bottom, placeholders);
+	final int count = browser.getElementCount();
+	//Attributes are needed for all nodes to find content ones
+	browser.prefetchAttrs(order);
+	final BrowserIterator it = browser.createIterator();
+	final boolean[] content = new boolean[count];
+	final int[] contentPositions = new int[order.length];
+	int contentCount = 0;
+	for(int i: order)
+	{
+	    it.setPos(i);
+	    if (!placeholders.containsKey(Integer.valueOf(i)) && isContentNode(it))
+	    {
+		content[i] = true;
+		contentPositions[contentCount++] = i;
+	    }
+	}
+	//Only content items need rectangles and styles to check visibility
+	browser.prefetchRects(Arrays.copyOf(contentPositions, contentCount));
+	browser.prefetchStyles(Arrays.copyOf(contentPositions, contentCount));
+	final boolean[] visible = new boolean[count];
+	final boolean[] needsRect = new boolean[count];
+	final int[] containerPositions = new int[contentCount];
+	int containerCount = 0;
+	for(int k = 0;k < contentCount;k++)
+	{
+	    final int i = contentPositions[k];
+	    it.setPos(i);
+	    visible[i] = isVisible(it);
+	    if (!visible[i])
+		continue;
+	    needsRect[i] = true;
+	    //Only parents of visible content nodes may become containers
+	    final int parentPos = it.getParentPos();
+	    if (parentPos >= 0 && !content[parentPos] && !needsRect[parentPos])
+	    {
+		needsRect[parentPos] = true;
+		containerPositions[containerCount++] = parentPos;
+	    }
+	}
+	browser.prefetchRects(Arrays.copyOf(containerPositions, containerCount));
+	final Node[] nodes = new Node[count];
+	for(int i: order)
+	{
+	    if (placeholders.containsKey(Integer.valueOf(i)))
+		continue;
+	    it.setPos(i);
+	    //Only visible content nodes and their parents become content items and containers
+	    nodes[i] = new Node(it, needsRect[i], content[i], visible[i], false,
+				content[i]?getText(it, normalizer):"",
+				needsRect[i]?it.getRect():null);
+	}
+	if (!placeholders.isEmpty())
+	{
+	    final int[] positions = new int[placeholders.size()];
+	    int k = 0;
+	    for(Integer i: placeholders.keySet())
+		positions[k++] = i.intValue();
+	    final String[] texts = browser.getSubtreeTexts(positions, PLACEHOLDER_TEXT_LENGTH);
+	    for(k = 0;k < positions.length;k++)
+	    {
+		it.setPos(positions[k]);
+		nodes[positions[k]] = new Node(it, false, false, true, true, normalizer.normalize(texts[k]), placeholders.get(Integer.valueOf(positions[k])));
+	    }
+	}
+	return new PageSnapshot(nodes, order);
+    }
+
+    /**
+     * Chooses the nodes of the given vertical span of the page. The tree
+     * is descended level by level with one request of rectangles per
+     * level, the subtrees lying out of the span are skipped. Small
+     * subtrees and the nodes without any geometry can't be skipped
+     * reliably, so the small subtrees are taken completely and the
+     * unmeasured nodes are descended into. The ancestors of every taken
+     * node are taken as well. Every run of the skipped sibling subtrees on
+     * one side of the span is represented by the subtree nearest to the
+     * span, its root is taken as the placeholder.
+     *
+     * @param placeholders The map to put the common rectangles of the runs by positions of the placeholders
+     * @return Positions of the chosen nodes and of the placeholders in the document order
+     */
+    static private int[] selectNodes(Browser browser, int top, int bottom, Map<Integer, Rectangle> placeholders)
+    {
+	final int[] order = browser.getDocumentOrder();
+	//Indexed by positions in the document order
+	final boolean[] selected = new boolean[order.length];
+	final BrowserIterator it = browser.createIterator();
+	final BrowserIterator child = browser.createIterator();
+	int[] level = new int[8];
+	int levelSize = 0;
+	for(int k = 0;k < order.length;)
+	{
+	    if (levelSize == level.length)
+		level = Arrays.copyOf(level, levelSize * 2);
+	    level[levelSize++] = k;
+	    it.setPos(order[k]);
+	    k = it.getSubtreeEnd();
+	}
+	while(levelSize > 0)
+	{
+	    final int[] positions = new int[levelSize];
+	    for(int i = 0;i < levelSize;i++)
+		positions[i] = order[level[i]];
+	    browser.prefetchRects(positions);
+	    int[] next = new int[8];
+	    int nextSize = 0;
+	    //The current run of skipped siblings: the parent, the side and the common rectangle
+	    int runParent = -1;
+	    int runSide = 0;
+	    int runPlaceholder = -1;
+	    Rectangle runRect = null;
+	    for(int i = 0;i < levelSize;i++)
+	    {
+		final int k = level[i];
+		it.setPos(order[k]);
+		final int end = it.getSubtreeEnd();
+		final Rectangle rect = it.getRect();
+		final int side;
+		if (rect.width <= 0 || rect.height <= 0)
+		    side = 0; else
+		    if (rect.y + rect.height <= top)
+			side = -1; else
+			if (rect.y >= bottom)
+			    side = 1; else
+			    side = 0;
+		if (side != 0)
+		{
+		    final int parent = it.getParentPos();
+		    if (runRect != null && runParent == parent && runSide == side)
+		    {
+			runRect = runRect.union(rect);
+			//The runs above the span are represented by their last subtree, the runs below by their first one
+			if (side < 0)
+			{
+			    selected[runPlaceholder] = false;
+			    placeholders.remove(Integer.valueOf(order[runPlaceholder]));
+			    runPlaceholder = k;
+			}
+		    } else
+		    {
+			runParent = parent;
+			runSide = side;
+			runPlaceholder = k;
+			runRect = rect;
+		    }
+		    selected[runPlaceholder] = true;
+		    placeholders.put(Integer.valueOf(order[runPlaceholder]), runRect);
+		    continue;
+		}
+		runRect = null;
+		if (end - k <= SMALL_SUBTREE_SIZE)
+		{
+		    Arrays.fill(selected, k, end, true);
+		    continue;
+		}
+		selected[k] = true;
+		for(int c = it.getFirstChildPos();c >= 0;c = child.getNextSiblingPos())
+		{
+		    child.setPos(c);
+		    if (nextSize == next.length)
+			next = Arrays.copyOf(next, nextSize * 2);
+		    next[nextSize++] = child.getOrderIndex();
+		}
+	    }
+	    level = next;
+	    levelSize = nextSize;
+	}
+	int count = 0;
+	for(boolean b: selected)
+	    if (b)
+		count++;
+	final int[] res = new int[count];
+	count = 0;
+	for(int k = 0;k < order.length;k++)
+	    if (selected[k])
+		res[count++] = order[k];
+	return res;
+    }
+
+    //The default normalization is shared with the scan result, so unmodified texts aren't normalized on every snapshot
+    static private String getText(BrowserIterator it, TextNormalizer normalizer)
+    {
+	if (normalizer == TextNormalizer.DEFAULT)
+	    return it.getNormalizedText();
+	return normalizer.normalize(it.getText());
+    }
+
+    static private boolean isContentNode(BrowserIterator it)
+    {
+	NullCheck.notNull(it, "it");
+	final String role = it.getAttr("role");
+	if (role != null && role.toLowerCase().equals("img"))
+	    return true;
+	switch(it.getNodeKind())
+	{
+	case BUTTON:
+	case INPUT:
+	case IMAGE:
+	case BR:
+	case ANCHOR:
+	case TEXT:
+	    return true;
+	case ELEMENT:
+	    {
+		final String tagName = it.getTagName();
+		if (tagName == null)
+		    return false;
+		switch(tagName.toLowerCase())
+		{
+		case "em":
+		case "strong":
+		case "b":
+		case "span":
+		case "svg":
+		    return true;
+		default:
+		    return false;
+		}
+	    }
+	}
+	return false;
+    }
+
+    static private boolean isVisible(BrowserIterator it)
+    {
+	if (it.getNodeKind() == NodeKind.BR)
+	    return true;
+	if (it.getComputedStyle("visibility").toLowerCase().equals("hidden"))
+	    return false;
+	final Rectangle rect = it.getRect();
+	if (rect == null)
+	    return false;
+	return rect.width > 0 && rect.height > 0;
+    }
+}
@@ -17,13 +17,25 @@
 
 package org.luwrain.controls.web;
 
-final class Classes
+import java.io.*;
+
+import org.luwrain.browser.*;
+
+/**
+ * The source of pages for the model building. The live browser is the
+ * main source, but the model may be built from a recorded snapshot as
+ * well, without JavaFX and the display.
+ */
+interface PageSource
 {
-    static final String ANCHOR = "Anchor";
-    static final String BR = "BR";
-    static final String BUTTON = "Button";
-    static final String DOCUMENT_TYPE = "DocumentType";
-    static final String IMAGE = "Image";
-    static final String INPUT = "Input";
-    static final String TEXT = "Text";
+    /**
+     * Takes the snapshot of the current page. The method may be called on
+     * any thread, the source switches to its own one if necessary.
+     *
+     * @return The snapshot of the current page, never null
+     * @throws IOException if the page can't be read
+     */
+    PageSnapshot getSnapshot() throws IOException;
+
+    BrowserMetrics getMetrics();
 }
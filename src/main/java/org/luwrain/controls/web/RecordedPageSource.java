@@ -0,0 +1,65 @@
+/*
+   Copyright 2012-2018 Michael Pozhidaev <michael.pozhidaev@gmail.com>
+   Copyright 2015-2016 Roman Volovodov <gr.rPman@gmail.com>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.controls.web;
+
+import java.io.*;
+
+import org.luwrain.core.*;
+import org.luwrain.browser.*;
+
+/**
+ * Gives the page saved by {@link SnapshotWriter}. This source doesn't
+ * need the browser, so the model may be built from it on a machine
+ * without the display, e.g. in tests and benchmarks. The file is read
+ * only once.
+ */
+final class RecordedPageSource implements PageSource
+{
+    private final File file;
+    private final BrowserMetrics metrics = new BrowserMetrics();
+    private PageSnapshot snapshot = null;
+
+    RecordedPageSource(File file)
+    {
+	NullCheck.notNull(file, "file");
+	this.file = file;
+    }
+
+    RecordedPageSource(PageSnapshot snapshot)
+    {
+	NullCheck.notNull(snapshot, "snapshot");
+	this.file = null;
+	this.snapshot = snapshot;
+    }
+
+    @Override public synchronized PageSnapshot getSnapshot() throws IOException
+    {
+	if (snapshot == null)
+	{
+	    final long startTime = System.nanoTime();
+	    this.snapshot = SnapshotReader.read(file);
+	    metrics.add(BrowserMetrics.Type.MODEL_SNAPSHOT, (System.nanoTime() - startTime) / 1000);
+	}
+	return snapshot;
+    }
+
+    @Override public BrowserMetrics getMetrics()
+    {
+	return metrics;
+    }
+}
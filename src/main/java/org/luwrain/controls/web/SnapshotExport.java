@@ -0,0 +1,61 @@
+/*
+   Copyright 2012-2018 Michael Pozhidaev <michael.pozhidaev@gmail.com>
+   Copyright 2015-2016 Roman Volovodov <gr.rPman@gmail.com>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.controls.web;
+
+import java.io.*;
+import java.nio.file.*;
+
+import org.luwrain.core.*;
+
+/**
+ * Writes the page snapshot to a file for debugging and offline
+ * replaying. The export uses only the data of the snapshot, so it may run
+ * in the background. Every export goes to its own file with a unique
+ * name, so several browsers may export to the same directory.
+ *
+ * @see SnapshotWriter
+ */
+final class SnapshotExport implements Runnable
+{
+    static private final String LOG_COMPONENT = WebArea.LOG_COMPONENT;
+
+    private final PageSnapshot snapshot;
+    private final File destDir;
+
+    SnapshotExport(PageSnapshot snapshot, File destDir)
+    {
+	NullCheck.notNull(snapshot, "snapshot");
+	NullCheck.notNull(destDir, "destDir");
+	this.snapshot = snapshot;
+	this.destDir = destDir;
+    }
+
+    @Override public void run()
+    {
+	try {
+	    Files.createDirectories(destDir.toPath());
+	    final Path path = Files.createTempFile(destDir.toPath(), "page-", ".snapshot");
+	    SnapshotWriter.write(snapshot, path.toFile());
+	    Log.debug(LOG_COMPONENT, "the page snapshot exported to " + path.toString());
+	}
+	catch(IOException e)
+	{
+	    Log.error(LOG_COMPONENT, "unable to export the page snapshot to " + destDir.getAbsolutePath() + ":" + e.getClass().getName() + ":" + e.getMessage());
+	}
+    }
+}
@@ -0,0 +1,175 @@
+/*
+   Copyright 2012-2018 Michael Pozhidaev <michael.pozhidaev@gmail.com>
+   Copyright 2015-2016 Roman Volovodov <gr.rPman@gmail.com>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.controls.web;
+
+import java.util.*;
+import java.io.*;
+import java.awt.Rectangle;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+import org.luwrain.core.*;
+import org.luwrain.browser.*;
+
+/**
+ * Reads the page snapshot written by {@link SnapshotWriter}. The file is
+ * mapped into memory instead of reading through streams. The nodes of the
+ * read snapshot have no iterators, so the model built from it can't
+ * perform any actions on the page.
+ */
+final class SnapshotReader
+{
+    //The smallest sizes of the records in bytes, so that the counts may be checked before the allocation
+    static private final int MIN_STRING_SIZE = 4;
+    static private final int MIN_NODE_SIZE = 25;
+    static private final int MIN_ATTR_SIZE = 8;
+
+    private final ByteBuffer buf;
+    private String[] strings = null;
+
+    private SnapshotReader(ByteBuffer buf)
+    {
+	this.buf = buf;
+    }
+
+    static PageSnapshot read(File file) throws IOException
+    {
+	NullCheck.notNull(file, "file");
+	try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+	    return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+	}
+    }
+
+    static PageSnapshot read(ByteBuffer buf) throws IOException
+    {
+	NullCheck.notNull(buf, "buf");
+	final ByteBuffer b = buf.duplicate();
+	b.order(ByteOrder.BIG_ENDIAN);
+	try {
+	    return new SnapshotReader(b).readSnapshot();
+	}
+	catch(BufferUnderflowException e)
+	{
+	    throw new IOException("the snapshot data is truncated", e);
+	}
+	catch(IllegalArgumentException e)
+	{
+	    throw new IOException("the snapshot data is corrupted: " + e.getMessage(), e);
+	}
+    }
+
+    private PageSnapshot readSnapshot() throws IOException
+    {
+	if (buf.getInt() != SnapshotWriter.MAGIC)
+	    throw new IOException("no page snapshot signature");
+	final short version = buf.getShort();
+	if (version != SnapshotWriter.VERSION)
+	    throw new IOException("unsupported version of the page snapshot: " + version);
+	this.strings = new String[readCount(MIN_STRING_SIZE)];
+	for(int i = 0;i < strings.length;i++)
+	{
+	    final int len = readCount(1);
+	    if (buf.hasArray())
+	    {
+		strings[i] = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+		buf.position(buf.position() + len);
+	    } else
+		strings[i] = new String(bytes(len), StandardCharsets.UTF_8);
+	}
+	final PageSnapshot.Node[] nodes = new PageSnapshot.Node[readCount(MIN_NODE_SIZE)];
+	for(int i = 0;i < nodes.length;i++)
+	    nodes[i] = readNode();
+	return new PageSnapshot(nodes);
+    }
+
+    private PageSnapshot.Node readNode() throws IOException
+    {
+	final int pos = buf.getInt();
+	final int parentPos = buf.getInt();
+	final NodeKind kind = getKind(readString());
+	final String tagName = readString();
+	final int flags = buf.get();
+	final String text = readString();
+	final Rectangle rect;
+	if ((flags & SnapshotWriter.FLAG_RECT) != 0)
+	{
+	    final int x = buf.getInt();
+	    final int y = buf.getInt();
+	    final int width = buf.getInt();
+	    final int height = buf.getInt();
+	    rect = new Rectangle(x, y, width, height);
+	} else
+	    rect = null;
+	final int attrCount = readCount(MIN_ATTR_SIZE);
+	final Map<String, String> attrs = new LinkedHashMap<>();
+	for(int i = 0;i < attrCount;i++)
+	{
+	    final String name = readString();
+	    attrs.put(name, readString());
+	}
+	return new PageSnapshot.Node(null, pos, parentPos, kind, tagName, Collections.unmodifiableMap(attrs),
+				     (flags & SnapshotWriter.FLAG_CONTENT) != 0, (flags & SnapshotWriter.FLAG_VISIBLE) != 0,
+				     (flags & SnapshotWriter.FLAG_PLACEHOLDER) != 0, text, rect);
+    }
+
+    private String readString() throws IOException
+    {
+	final int index = buf.getInt();
+	if (index < 0 || index >= strings.length)
+	    throw new IOException("illegal string index: " + index);
+	return strings[index];
+    }
+
+    /**
+     * Reads the number of the following records. The records can't take
+     * more bytes than remain, so the corrupted counts are rejected here,
+     * before anything is allocated for them.
+     *
+     * @param minItemSize The smallest size of one record in bytes
+     */
+    private int readCount(int minItemSize) throws IOException
+    {
+	final int count = buf.getInt();
+	if (count < 0)
+	    throw new IOException("negative count: " + count);
+	if ((long)count * minItemSize > buf.remaining())
+	    throw new IOException("the count " + count + " exceeds the remaining data (" + buf.remaining() + " bytes)");
+	return count;
+    }
+
+    private byte[] bytes(int len)
+    {
+	final byte[] res = new byte[len];
+	buf.get(res);
+	return res;
+    }
+
+    //The snapshot may be written by a newer version with new kinds
+    static private NodeKind getKind(String name)
+    {
+	try {
+	    return NodeKind.valueOf(name);
+	}
+	catch(IllegalArgumentException e)
+	{
+	    return NodeKind.OTHER;
+	}
+    }
+}
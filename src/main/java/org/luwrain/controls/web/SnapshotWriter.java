@@ -0,0 +1,137 @@
+/*
+   Copyright 2012-2018 Michael Pozhidaev <michael.pozhidaev@gmail.com>
+   Copyright 2015-2016 Roman Volovodov <gr.rPman@gmail.com>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.controls.web;
+
+import java.util.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+import org.luwrain.core.*;
+
+/**
+ * Writes the page snapshot in the binary format which may be read back
+ * by {@link SnapshotReader} without the browser. All strings are saved
+ * once in the table at the beginning, the nodes refer to them by
+ * indices. The numbers are big-endian, as {@link DataOutput} writes
+ * them.
+ *
+ * The version 1 of the format:
+ * <pre>
+ * int magic, short version
+ * int string count, then for every string: int byte count, UTF-8 bytes
+ * int node count, then for every node in the document order:
+ *   int position, int parent position or -1,
+ *   int string of the node kind name, int string of the tag name,
+ *   byte flags (1 - content, 2 - visible, 4 - the rectangle is known, 8 - placeholder),
+ *   int string of the text,
+ *   int x, int y, int width, int height, only if the rectangle is known,
+ *   int attribute count, then int strings of the name and the value for every attribute
+ * </pre>
+ */
+final class SnapshotWriter
+{
+    static final int MAGIC = 0x4c575053;
+    static final short VERSION = 1;
+
+    static final int FLAG_CONTENT = 1;
+    static final int FLAG_VISIBLE = 2;
+    static final int FLAG_RECT = 4;
+    static final int FLAG_PLACEHOLDER = 8;
+
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final List<String> stringList = new ArrayList<>();
+
+    private SnapshotWriter()
+    {
+    }
+
+    static void write(PageSnapshot snapshot, DataOutput output) throws IOException
+    {
+	NullCheck.notNull(snapshot, "snapshot");
+	NullCheck.notNull(output, "output");
+	new SnapshotWriter().writeSnapshot(snapshot, output);
+    }
+
+    static void write(PageSnapshot snapshot, File file) throws IOException
+    {
+	NullCheck.notNull(snapshot, "snapshot");
+	NullCheck.notNull(file, "file");
+	try (final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+	    write(snapshot, output);
+	}
+    }
+
+    private void writeSnapshot(PageSnapshot snapshot, DataOutput output) throws IOException
+    {
+	final int[] order = snapshot.getOrder();
+	//The string table goes first, so collecting the strings in advance
+	for(int pos: order)
+	{
+	    final PageSnapshot.Node node = snapshot.get(pos);
+	    add(node.kind.name());
+	    add(node.tagName);
+	    add(node.text);
+	    for(Map.Entry<String, String> e: node.attrs.entrySet())
+	    {
+		add(e.getKey());
+		add(e.getValue());
+	    }
+	}
+	output.writeInt(MAGIC);
+	output.writeShort(VERSION);
+	output.writeInt(stringList.size());
+	for(String s: stringList)
+	{
+	    final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+	    output.writeInt(bytes.length);
+	    output.write(bytes);
+	}
+	output.writeInt(order.length);
+	for(int pos: order)
+	{
+	    final PageSnapshot.Node node = snapshot.get(pos);
+	    output.writeInt(node.pos);
+	    output.writeInt(node.parentPos);
+	    output.writeInt(strings.get(node.kind.name()));
+	    output.writeInt(strings.get(node.tagName));
+	    output.writeByte((node.content?FLAG_CONTENT:0) | (node.visible?FLAG_VISIBLE:0) | (node.rectKnown?FLAG_RECT:0) | (node.placeholder?FLAG_PLACEHOLDER:0));
+	    output.writeInt(strings.get(node.text));
+	    if (node.rectKnown)
+	    {
+		output.writeInt(node.x);
+		output.writeInt(node.y);
+		output.writeInt(node.width);
+		output.writeInt(node.height);
+	    }
+	    output.writeInt(node.attrs.size());
+	    for(Map.Entry<String, String> e: node.attrs.entrySet())
+	    {
+		output.writeInt(strings.get(e.getKey()));
+		output.writeInt(strings.get(e.getValue()));
+	    }
+	}
+    }
+
+    private void add(String s)
+    {
+	if (strings.containsKey(s))
+	    return;
+	strings.put(s, Integer.valueOf(stringList.size()));
+	stringList.add(s);
+    }
+}
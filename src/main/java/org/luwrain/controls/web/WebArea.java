@@ -6,6 +6,7 @@ package org.luwrain.controls.web;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.luwrain.core.*;
 import org.luwrain.core.events.*;
@@ -18,6 +19,26 @@ public class WebArea extends BlockArea
 {
     static final String LOG_COMPONENT = "web";
     static private final int MIN_VISIBLE_WIDTH = 20;
+    //The area without user input and reading for this time is considered inactive, unless the application reports the focus itself
+    static private final long INACTIVITY_TIMEOUT = 60000;
+    //Modifications of the page are collected for this time before the view is refreshed
+    static private final long REFRESH_DELAY = 1000;
+    //The view is refreshed on modifications not more often than this, pages with clocks and carousels change all the time
+    static private final long MIN_REFRESH_INTERVAL = 3000;
+
+    //Models of all areas are built in one background thread
+    static private final Executor modelExecutor = Executors.newSingleThreadExecutor((r)->{
+	    final Thread t = new Thread(r, "web-model");
+	    t.setDaemon(true);
+	    return t;
+	});
+
+    //Timers of all areas, the tasks only post their work to the client thread
+    static private final ScheduledExecutorService timerExecutor = Executors.newSingleThreadScheduledExecutor((r)->{
+	    final Thread t = new Thread(r, "web-timer");
+	    t.setDaemon(true);
+	    return t;
+	});
 
     /**
      * An interface to thread manager. A vast majority of browser work
@@ -78,19 +99,105 @@ public class WebArea extends BlockArea
 	public Callback callback = null;
 	public ClientThread clientThread = null;
 	public BrowserFactory browserFactory = null;
+	//The directory for snapshots of pages for debugging, null means no export
+	public File snapshotExportDir = null;
+	//The Unicode normalization of texts of the page, null means no normalization
+	public java.text.Normalizer.Form textNormalization = null;
+	//The height in pixels of the part of the page around the reading position taken into the model, the rest has only placeholders, zero means the whole page
+	public int modelWindowHeight = 0;
+    }
+
+    //Notes the blocks announced to the user, since the reading position is known only to the block area
+    static private final class ReadingTracker implements Appearance
+    {
+	private final Appearance appearance;
+	private WebArea area = null;
+	//Nothing is announced while the area moves the hot point by itself, only the last passed row is noted
+	private boolean muted = false;
+	private Block lastBlock = null;
+	private boolean lastFirst = false;
+
+	ReadingTracker(Appearance appearance)
+	{
+	    NullCheck.notNull(appearance, "appearance");
+	    this.appearance = appearance;
+	}
+
+	@Override public void announceFirstRow(Block block, BlockRowFragment[] objs)
+	{
+	    if (muted)
+	    {
+		lastBlock = block;
+		lastFirst = true;
+		return;
+	    }
+	    appearance.announceFirstRow(block, objs);
+	    if (area != null && block instanceof Container)
+		area.onReading((Container)block, true);
+	}
+
+	@Override public void announceRow(Block block, BlockRowFragment[] objs)
+	{
+	    if (muted)
+	    {
+		lastBlock = block;
+		lastFirst = false;
+		return;
+	    }
+	    appearance.announceRow(block, objs);
+	    if (area != null && block instanceof Container)
+		area.onReading((Container)block, false);
+	}
+
+	@Override public String getRowTextAppearance(BlockRowFragment[] objs)
+	{
+	    return appearance.getRowTextAppearance(objs);
+	}
     }
 
     protected final Browser browser;
+    private final LivePageSource pageSource;
+    private final ReadingTracker tracker;
 protected Callback callback = null;
 protected ClientThread clientThread = null;
+    private final File snapshotExportDir;
 
     
     protected Events.State state = null;
     protected int progress = 0;
+    //Incremented on every view update, the models of the previous updates are dropped
+    private volatile int modelSeq = 0;
+    //The geometrical index of the shown containers, built on the first request only
+    private ContainerIndex containerIndex = null;
+    private final int modelWindowHeight;
+    private int windowCenter = 0;
+    //False while the model is being built, the window isn't moved until the previous building is finished
+    private boolean modelReady = false;
+    //The container of the last announced row, the line of this row and the line of the first row of the container or -1 if unknown
+    private Container readingContainer = null;
+    private int readingLine = -1;
+    private int readingFirstLine = -1;
+    //The reader came to the placeholder above the window, so the position goes to the end of the part replacing it
+    private boolean readingUpwards = false;
+    //The containers shown in the area, empty until the first model of the page is built
+    private Container[] containers = new Container[0];
+    private ScheduledFuture<?> pendingRefresh = null;
+    private long lastRefreshTime = 0;
+    private boolean changedWhileInactive = false;
+    private boolean active = true;
+    //The application reports the focus changes itself, so the activity isn't guessed by the timer
+    private boolean focusReported = false;
+    private long lastInputTime = System.currentTimeMillis();
+    private ScheduledFuture<?> inactivityCheck = null;
 
     public WebArea(WebArea.Params params)
     {
-	super(params);
+	this(params, newTracker(params));
+    }
+
+    private WebArea(WebArea.Params params, ReadingTracker tracker)
+    {
+	super(makeBlockParams(params, tracker));
 	NullCheck.notNull(params.clientThread, "params.clientThread");
 	NullCheck.notNull(params.callback, "params.callback");
 	NullCheck.notNull(params.browserFactory, "params.browserFactory");
@@ -98,12 +205,42 @@ protected ClientThread clientThread = null;
 	if (this.browser == null)
 	    throw new NullPointerException("Browser factory may not return null");
 	this.callback = params.callback;
+	this.pageSource = new LivePageSource(browser, params.textNormalization != null?new TextNormalizer(params.textNormalization):TextNormalizer.DEFAULT);
+	this.clientThread = params.clientThread;
+	this.snapshotExportDir = params.snapshotExportDir;
+	if (params.modelWindowHeight < 0)
+	    throw new IllegalArgumentException("params.modelWindowHeight (" + params.modelWindowHeight + ") may not be negative");
+	this.modelWindowHeight = params.modelWindowHeight;
+	this.windowCenter = modelWindowHeight / 2;
+	this.tracker = tracker;
+	tracker.area = this;
+	if (modelWindowHeight > 0)
+	    pageSource.setWindow(windowCenter - modelWindowHeight / 2, windowCenter + modelWindowHeight / 2);
+	scheduleInactivityCheck(INACTIVITY_TIMEOUT);
+    }
+
+    static private ReadingTracker newTracker(WebArea.Params params)
+    {
+	NullCheck.notNull(params, "params");
+	NullCheck.notNull(params.appearance, "params.appearance");
+	return new ReadingTracker(params.appearance);
+    }
+
+    //The params of the caller aren't touched, the block area gets the copy with the wrapped appearance
+    static private BlockArea.Params makeBlockParams(WebArea.Params params, ReadingTracker tracker)
+    {
+	final BlockArea.Params res = new BlockArea.Params();
+	res.context = params.context;
+	res.appearance = tracker;
+	return res;
     }
 
     /**
      * Performs DOM scanning with updating the auxiliary structures used for
      * user navigation. This method may be called only if the page is
      * successfully loaded and the browser isn't busy with background work.
+     * The reading position is kept on the same node, if it is still shown,
+     * since the refreshing is also made on the page modifications.
      *
      * @return true if the browser is free and able to do the refreshing, false otherwise
      */
@@ -111,36 +248,255 @@ protected ClientThread clientThread = null;
     {
 	//FIXME:if busy
 	final int areaWidth = context.getAreaVisibleWidth(this);
+	lastRefreshTime = System.currentTimeMillis();
 	browser.update();
-	updateView(areaWidth);
+	updateView(areaWidth, true);
 	return true;
     }
 
+    /**
+     * Starts building of the view of the current page. Only the snapshot
+     * of the page is taken on the browser thread, the containers are built
+     * in the background and are shown in portions from the beginning of
+     * the page. The building started by the previous call is dropped.
+     *
+     * @param areaWidth The visible width of the area
+     * @return True if the building is started, false otherwise
+     */
     public boolean updateView(int areaWidth)
     {
-	final Object obj = browser.runSafely(()->{
+	return updateView(areaWidth, false);
+    }
+
+    //With keepPosition the hot point is moved to the same node of the page in the new model, if it is there
+    private boolean updateView(int areaWidth, boolean keepPosition)
+    {
+	final int seq = ++modelSeq;
+	final PageSnapshot snapshot;
+	try {
+	    snapshot = pageSource.getSnapshot();
+	}
+	catch(IOException e)
+	{
+	    Log.warning(LOG_COMPONENT, "unable to build a view:" + e.getMessage());
+	    containerIndex = null;
+	    modelReady = false;
+	    containers = new Container[0];
+	    readingContainer = null;
+	    clear();
+	    return false;
+	}
+	final ModelBuilder builder = new ModelBuilder(snapshot, pageSource.getMetrics());
+	modelReady = false;
+	//Portions are shown only for the first model of the page, the view being read is replaced only by the complete model
+	final boolean progressive = containers.length == 0;
+	modelExecutor.execute(()->{
 		try {
-		    final Container[] containers = new ModelBuilder().build(browser);
-		    Log.debug(LOG_COMPONENT, "containers prepared: " + containers.length);
-		    return containers;
+		    builder.build((containers, complete)->{
+			    if (seq != modelSeq)
+				return false;
+			    if (!complete && !progressive)
+				return true;
+			    if (complete)
+				Log.debug(LOG_COMPONENT, "containers prepared: " + containers.length);
+			    clientThread.runAsync(()->{
+				    if (seq != modelSeq)
+					return;
+				    modelReady = complete;
+				    if (complete && sameContent(this.containers, containers))
+				    {
+					Log.debug(LOG_COMPONENT, "no visible modifications, the view is kept");
+					return;
+				    }
+				    containerIndex = null;
+				    if (complete)
+					this.containers = containers;
+				    if (complete && keepPosition)
+					showContainers(containers); else
+					setBlocks(containers, 100);
+				});
+			    return true;
+			});
 		}
 		catch(Throwable e)
 		{
 		    Log.error(LOG_COMPONENT, "the construction of web view and model failed:" + e.getClass().getName() + ":" + e.getMessage());
 		    e.printStackTrace();
-		    return null;
 		}
 	    });
-	if (obj == null || !(obj instanceof View))
-	{
-	    Log.warning(LOG_COMPONENT, "unable to build a view");
-	    clear();
+	//Queued after the building, so that the export doesn't delay the view
+	if (snapshotExportDir != null)
+	    modelExecutor.execute(new SnapshotExport(snapshot, snapshotExportDir));
+	return true;
+    }
+
+    static private boolean sameContent(Container[] containers1, Container[] containers2)
+    {
+	if (containers1.length != containers2.length)
 	    return false;
-	}
-	setBlocks((Block[])obj, 100);
+	for(int i = 0;i < containers1.length;i++)
+	    if (!containers1[i].hasSameContent(containers2[i]))
+		return false;
 	return true;
     }
 
+    //Called on every row announced to the user, the reading counts as the activity in the area
+    private void onReading(Container c, boolean firstRow)
+    {
+	NullCheck.notNull(c, "c");
+	onActivity();
+	final int line = getHotPointY();
+	if (firstRow)
+	    readingFirstLine = line; else
+	    if (c != readingContainer)
+		readingFirstLine = -1;
+	readingContainer = c;
+	readingLine = line;
+	if (modelWindowHeight <= 0 || !modelReady)
+	    return;
+	final int center;
+	if (c.placeholder)
+	{
+	    //The window is moved to cover the edge of the skipped part nearest to the reader
+	    readingUpwards = c.y < windowCenter;
+	    center = readingUpwards?c.y + c.height - modelWindowHeight / 4:c.y + modelWindowHeight / 4;
+	} else
+	{
+	    //The window is moved only when the reader gets to its outer quarters, so that the model isn't rebuilt on every row
+	    if (Math.abs(c.y - windowCenter) < modelWindowHeight / 4)
+		return;
+	    readingUpwards = false;
+	    center = c.y;
+	}
+	windowCenter = center;
+	pageSource.setWindow(windowCenter - modelWindowHeight / 2, windowCenter + modelWindowHeight / 2);
+	updateView(context.getAreaVisibleWidth(this), true);
+    }
+
+    //Replaces the blocks keeping the reading position on the same node of the page, if the node is still there
+    private void showContainers(Container[] containers)
+    {
+	final Container reading = readingContainer;
+	final int row;
+	if (reading != null && reading.placeholder)
+	    row = readingUpwards?Integer.MAX_VALUE:0; else
+	    row = readingFirstLine >= 0?readingLine - readingFirstLine:0;
+	setBlocks(containers, 100);
+	readingContainer = null;
+	readingLine = -1;
+	readingFirstLine = -1;
+	if (reading == null)
+	    return;
+	final Container target = findContainer(containers, reading, readingUpwards);
+	if (target != null)
+	    moveToBlock(target, row);
+    }
+
+    /**
+     * Finds the container for the reading position of the previous model.
+     * The same node is taken, if it is still a container, otherwise the
+     * nearest container. The placeholder of the part above the window is
+     * replaced by the last container of that part, the other placeholders
+     * by the first one.
+     */
+    static private Container findContainer(Container[] containers, Container c, boolean upwards)
+    {
+	if (!c.placeholder)
+	    for(Container cc: containers)
+		if (cc.pos == c.pos && !cc.placeholder && cc.tagName.equals(c.tagName))
+		    return cc;
+	Container res = null;
+	for(Container cc: containers)
+	{
+	    if (c.placeholder && upwards)
+	    {
+		if (cc.y < c.y + c.height && (res == null || cc.y >= res.y))
+		    res = cc;
+		continue;
+	    }
+	    if (c.placeholder)
+	    {
+		if (cc.y >= c.y && (res == null || cc.y < res.y))
+		    res = cc;
+		continue;
+	    }
+	    if (res == null || Math.abs(cc.y - c.y) < Math.abs(res.y - c.y))
+		res = cc;
+	}
+	return res;
+    }
+
+    /**
+     * Moves the hot point to the given row of the given block. The block
+     * area of the core can't put the hot point to a block, so the area
+     * goes there row by row with muted announcements: down from the
+     * current row and then up, if the block isn't found below.
+     *
+     * @param block The block to move to
+     * @param row The row in the block, the rows beyond the last one mean the last row
+     * @return True if the block is found, false otherwise
+     */
+    private boolean moveToBlock(Block block, int row)
+    {
+	tracker.muted = true;
+	try {
+	    boolean found = false;
+	    while(!found && step(true))
+		found = tracker.lastBlock == block;
+	    while(!found && step(false))
+		found = tracker.lastBlock == block;
+	    if (!found)
+		return false;
+	    //Any row of the block may be met first, going up to its first row
+	    while(tracker.lastBlock == block && !tracker.lastFirst && step(false));
+	    if (tracker.lastBlock != block)
+		step(true);
+	    final int firstLine = getHotPointY();
+	    for(int i = 0;i < row && step(true);i++)
+		if (tracker.lastBlock != block)
+		{
+		    step(false);
+		    break;
+		}
+	    if (block instanceof Container)
+		readingContainer = (Container)block;
+	    readingFirstLine = firstLine;
+	    readingLine = getHotPointY();
+	    return true;
+	}
+	finally {
+	    tracker.muted = false;
+	}
+    }
+
+    //One row down or up by the navigation of the block area, the boundaries are checked in advance to avoid the hints
+    private boolean step(boolean down)
+    {
+	final int line = getHotPointY();
+	if (down?line + 1 >= getLineCount():line <= 0)
+	    return false;
+	tracker.lastBlock = null;
+	super.onInputEvent(new InputEvent(down?InputEvent.Special.ARROW_DOWN:InputEvent.Special.ARROW_UP));
+	return getHotPointY() != line;
+    }
+
+    /**
+     * Returns the geometrical index of the containers of the current view.
+     * The index is available only when the model is completely built. It
+     * is built on the first call for every model, so the models which are
+     * never queried geometrically don't spend any time on it.
+     *
+     * @return The index of the containers or null if the model isn't ready yet
+     */
+    ContainerIndex getContainerIndex()
+    {
+	if (!modelReady)
+	    return null;
+	if (containerIndex == null)
+	    containerIndex = new ContainerIndex(containers);
+	return containerIndex;
+    }
+
     /**Checks if the browser has valid loaded page
      *
      * @return true if there is any successfully loaded page, false otherwise
@@ -150,6 +506,85 @@ protected ClientThread clientThread = null;
 	return super.isEmpty();
     }
 
+    /**
+     * Tells the area whether the user is reading it now. The browser of the
+     * inactive area doesn't rescan the page periodically. The application
+     * should call this method when the area loses and gets the focus. Until
+     * the first call the area guesses it, becoming active on any input or
+     * reading and inactive after a minute without both of them.
+     *
+     * @param active True if the area is active, false otherwise
+     */
+    public void setActive(boolean active)
+    {
+	focusReported = true;
+	if (inactivityCheck != null)
+	{
+	    inactivityCheck.cancel(false);
+	    inactivityCheck = null;
+	}
+	updateActive(active);
+    }
+
+    //Any input or reading means the user is in the area
+    private void onActivity()
+    {
+	lastInputTime = System.currentTimeMillis();
+	updateActive(true);
+    }
+
+    private void updateActive(boolean active)
+    {
+	if (this.active == active)
+	    return;
+	this.active = active;
+	browser.setActive(active);
+	if (!active)
+	    return;
+	if (!focusReported)
+	    scheduleInactivityCheck(INACTIVITY_TIMEOUT);
+	if (changedWhileInactive)
+	{
+	    changedWhileInactive = false;
+	    scheduleRefresh();
+	}
+    }
+
+    //Merges all modifications coming during the delay into one refresh
+    private void scheduleRefresh()
+    {
+	if (pendingRefresh != null)
+	    return;
+	final long delay = Math.max(REFRESH_DELAY, lastRefreshTime + MIN_REFRESH_INTERVAL - System.currentTimeMillis());
+	pendingRefresh = timerExecutor.schedule(()->clientThread.runAsync(()->{
+		    pendingRefresh = null;
+		    if (state != Events.State.SUCCEEDED)
+			return;
+		    if (!active)
+		    {
+			changedWhileInactive = true;
+			return;
+		    }
+		    refresh();
+		}), delay, TimeUnit.MILLISECONDS);
+    }
+
+    //Runs on the client thread, the timer only posts the check there
+    private void scheduleInactivityCheck(long delay)
+    {
+	if (inactivityCheck != null)
+	    return;
+	inactivityCheck = timerExecutor.schedule(()->clientThread.runAsync(()->{
+		    inactivityCheck = null;
+		    if (!active || focusReported)
+			return;
+		    final long idle = System.currentTimeMillis() - lastInputTime;
+		    if (idle >= INACTIVITY_TIMEOUT)
+			updateActive(false); else
+			scheduleInactivityCheck(INACTIVITY_TIMEOUT - idle);
+		}), delay, TimeUnit.MILLISECONDS);
+    }
+
     boolean isBusy()
     {
 	return state == Events.State.SCHEDULED || state == Events.State.RUNNING;
@@ -204,6 +639,67 @@ protected ClientThread clientThread = null;
 	return title != null?title:"";
     }
 
+    //Any input means the user is in the area, so rescanning is resumed if it was paused
+    @Override public boolean onInputEvent(InputEvent event)
+    {
+	NullCheck.notNull(event, "event");
+	onActivity();
+	if (event.isSpecial() && event.withAltOnly())
+	    switch(event.getSpecial())
+	    {
+	    case ARROW_RIGHT:
+		if (onGeometricalMove(true))
+		    return true;
+		break;
+	    case ARROW_DOWN:
+		if (onGeometricalMove(false))
+		    return true;
+		break;
+	    }
+	return super.onInputEvent(event);
+    }
+
+    /**
+     * Moves the hot point to the container placed on the page to the right
+     * of the container being read or below it. The order of the blocks in
+     * the area follows the document, so the neighbouring columns or cells
+     * of the table may be far away from each other by rows.
+     *
+     * @param right True for the container to the right, false for the container below
+     * @return True if the event is handled, false otherwise
+     */
+    private boolean onGeometricalMove(boolean right)
+    {
+	final Container reading = readingContainer;
+	final ContainerIndex index = getContainerIndex();
+	if (reading == null || index == null)
+	    return false;
+	final Container target = right?index.getNextRight(reading):index.getNextBelow(reading);
+	if (target == null || !moveToBlock(target, 0))
+	{
+	    context.setEventResponse(DefaultEventResponse.hint(right?Hint.END_OF_LINE:Hint.NO_ITEMS_BELOW));
+	    return true;
+	}
+	announceHotPointRow();
+	return true;
+    }
+
+    //Leaves the row muted and comes back to it, so the block area announces it in its usual way
+    private void announceHotPointRow()
+    {
+	tracker.muted = true;
+	final boolean up;
+	try {
+	    up = step(false);
+	    if (!up && !step(true))
+		return;
+	}
+	finally {
+	    tracker.muted = false;
+	}
+	step(up);
+    }
+
     @Override public boolean onSystemEvent(SystemEvent event)
     {
 	NullCheck.notNull(event, "event");
@@ -260,6 +756,8 @@ protected ClientThread clientThread = null;
 	switch(state)
 	{
 	case SUCCEEDED:
+	    containers = new Container[0];
+	    readingContainer = null;
 	    refresh();
 	    callback.onBrowserSuccess(getTitle());
 	    return;
@@ -275,6 +773,19 @@ protected ClientThread clientThread = null;
 	}
     }
 
+    void onPageChanged()
+    {
+	//The page being loaded will be refreshed on success
+	if (state != Events.State.SUCCEEDED)
+	    return;
+	if (!active)
+	{
+	    changedWhileInactive = true;
+	    return;
+	}
+	scheduleRefresh();
+    }
+
     void onProgress(int progress)
     {
 	this.progress = progress;
@@ -29,6 +29,14 @@ public interface Settings
     void setUserAgent(String value);
     boolean getJavaScriptEnabled(boolean defValue);
     void setJavaScriptEnabled(boolean value);
+    int getRescanMinInterval(int defValue);
+    void setRescanMinInterval(int value);
+    int getRescanMaxInterval(int defValue);
+    void setRescanMaxInterval(int value);
+    String getSnapshotExportDir(String defValue);
+    void setSnapshotExportDir(String value);
+    int getModelWindowHeight(int defValue);
+    void setModelWindowHeight(int value);
 
     static public Settings create(Registry registry)
     {
@@ -14,65 +14,126 @@ new function ()
 	this.countVisible=0;
 	this.countVisibleLast=0;
 
+	/** persistent node table, the index is the node id, removed nodes leave null holes */
+	this.table=[];
+	/** number of null holes in the node table */
+	this.holes=0;
+	/** incremented on every full rebuild of the node table, ids of different epochs are unrelated */
+	this.epoch=0;
+	/** incremented on every modification of the node table */
+	this.seq=0;
+	/** ids of nodes added, removed or changed since the last takeDelta() call */
+	this.added=[];
+	this.removed=[];
+	this.changed=[];
+	/** mutation records collected by the observer and not applied to the node table yet */
+	this.mutations=[];
+	this.mutationsOverflow=false;
+	/** the limit of pending mutation records, the node table is rebuilt from scratch if there are more */
+	this.maxMutations=10000;
+	this.observer=null;
+	/** nodes of added records of the last exportDelta() call */
+	this.exportNodes=[];
+	/** the counter to mark already processed nodes during one pass over mutation records */
+	this.pass=0;
+
+	/** parameters given by Java before running the injection */
+	var params=window.luwrainParams||{};
+	/** the maximum number of nodes in the node table, the rest of a huge document is skipped */
+	this.maxNodes=params.maxNodes||100000;
+	/** skip rectangles during scanning, Java requests them with exportRects() only for nodes it needs, every rectangle forces layout */
+	this.lazyGeometry=params.lazyGeometry===true;
+	/** the names of computed style properties which Java takes in bulk with exportStyles() */
+	this.styleProperties=params.styleProperties?String(params.styleProperties).split(','):[];
+
+	/** the bounds of the interval in milliseconds between rescans, it grows while the page is not modified and shrinks on modifications */
+	this.minTimeout=params.minTimeout||250;
+	this.maxTimeout=Math.max(params.maxTimeout||10000,this.minTimeout);
 	/** next interval in milliseconds to rescan */
-	this.updateTimeout=3000;
-	
+	this.updateTimeout=Math.min(Math.max(1000,this.minTimeout),this.maxTimeout);
+	/** the time of the scheduled rescan */
+	this.timerDue=0;
+	this.timerid=null;
+	/** no rescans while the page isn't read by the user, modifications are still collected by the observer */
+	this.paused=false;
+	/** Java is already notified about modifications and hasn't taken them yet, the initial table is taken on the page load anyway */
+	this.notified=true;
+
 	/** performance check, store timing for last method calls */
 	this.domLT=0;
 	this.domLastLT=0;
-	
-	/** recursive method to return nodes' array about children of specified node
-	 * @param node target node */
-	this.nodewalk = function(node, lvl)
+	this.scanLT=0;
+
+	/** return array of all descendants of specified node in the document order, the walk is iterative to be safe on very deep trees
+	 * @param node target node
+	 * @param limit the maximum number of nodes to return */
+	this.nodewalk = function(node, limit)
 	{
 		var res = [];
-		if(node)
+		if(!node)
+			return res;
+		var n=node.firstChild;
+		while(n!=null&&res.length<limit)
 		{
-			node=node.firstChild;
-			while(node!= null)
+			res.push(n);
+			if(n.firstChild!=null)
 			{
-			    res.push(node);
-				res = res.concat(this.nodewalk(node, lvl + 1));
-				node = node.nextSibling;
+				n=n.firstChild;
+				continue;
 			}
+			while(n!=node&&n.nextSibling==null)
+				n=n.parentNode;
+			n=n!=node?n.nextSibling:null;
 		}
 		return res;
 	};
+	/** return bounding rectangle of node or null if it cannot be calculated */
+	this.getRect=function(node)
+	{
+		if(node.getBoundingClientRect)
+			return node.getBoundingClientRect();
+		try
+		{
+			var range=document.createRange();
+			range.selectNodeContents(node);
+			return range.getBoundingClientRect();
+		}
+		catch(e)
+		{
+			return null;
+		};
+	};
+	/** make node info object:{n:node,r:rectangle or null,h:content_hash or null,p:parent_id,v:previous_sibling_id} */
+	this.makeRecord=function(node)
+	{
+		return {n:node,r:this.lazyGeometry?null:this.getRect(node),h:this.getNodeHash(node),p:-1,v:-1};
+	};
+	/** set ids of the parent and the previous sibling to the node table record, they are known only after all nodes got their ids */
+	this.linkRecord=function(rec)
+	{
+		if(rec==null)
+			return;
+		rec.p=this.idOf(rec.n.parentNode);
+		rec.v=this.idOf(rec.n.previousSibling);
+	};
 	/** scan full document structure and return planar array of node info as object:{n:node,r:rectangle or null,h:content_hash or null} */
 	this.scanDOM = function()
 	{
 		this.countVisibleLast = 0;
-		var lst = this.nodewalk(document,0);
+		var lst = this.nodewalk(document,this.maxNodes);
+		if(lst.length>=this.maxNodes)
+			console.log('the limit of '+this.maxNodes+' nodes is reached, the rest of the document is skipped');
 		var res=[];
 		for(var i=0;i<lst.length;i++)
 		{
-			var n={
-				n:lst[i],
-				r:(
-					lst[i].getBoundingClientRect?lst[i].getBoundingClientRect():
-					((function(nnn)
-					{
-						try
-						{
-							var range=document.createRange();
-							range.selectNodeContents(nnn);
-							return range.getBoundingClientRect();
-						}
-						catch(e)
-						{
-							return null;
-						};
-					})(lst[i]))
-				),
-				h:this.getNodeHash(lst[i])
-			};
+			var n=this.makeRecord(lst[i]);
 			if(n.r!=null&&(n.r.width==0||n.r.height==0))
 				this.countVisibleLast++;
 			res.push(n);
 		};
 		return res;
 	};
-	/** set nodes indexes list to observe modification text or position 
+	/** set nodes indexes list to observe modification text or position
 	 * @param nodes array of nodes*/
 	this.setObserve=function(nodes)
 	{
@@ -80,7 +141,7 @@ new function ()
 	}
 	/** return node content hash number to detect value modification, except rectangle and visibility, scan is NOT recursive */
 	this.getNodeHash=function(node)
-	{ 
+	{
 		var content='';
 		switch(node.nodeType)
 		{
@@ -101,7 +162,7 @@ new function ()
 					default:
 						content=node.value;
 					}
-					
+
 				break;
 				default:
 					content=node.nodeValue;
@@ -112,7 +173,7 @@ new function ()
 	}
 	this.hash=function(str)
 	{ // https://github.com/darkskyapp/string-hash/
-		if(str==null) return 0; 
+		if(str==null) return 0;
 		var hash = 5381, i = str.length;
 		while(i)
 			hash = (hash * 33) ^ str.charCodeAt(--i);
@@ -121,8 +182,403 @@ new function ()
 	   	 signed int to an unsigned by doing an unsigned bitshift. */
 		return hash >>> 0;
 	}
-	
-	this.onTimeout=function()
+
+	/** return id of node in the node table of the current epoch or -1 */
+	this.idOf=function(node)
+	{
+		if(node==null||node._luwrainEpoch!==this.epoch)
+			return -1;
+		return node._luwrainId;
+	};
+	/** replace the node table with the planar array returned by scanDOM, all node ids are assigned anew */
+	this.setTable=function(lst)
+	{
+		this.epoch++;
+		for(var i=0;i<lst.length;i++)
+		{
+			lst[i].n._luwrainId=i;
+			lst[i].n._luwrainEpoch=this.epoch;
+		}
+		for(var i=0;i<lst.length;i++)
+			this.linkRecord(lst[i]);
+		this.table=lst;
+		this.holes=0;
+		this.added=[];
+		this.removed=[];
+		this.changed=[];
+		this.seq++;
+	};
+	/** put new node to the end of the node table */
+	this.addNode=function(node)
+	{
+		var id=this.table.length;
+		node._luwrainId=id;
+		node._luwrainEpoch=this.epoch;
+		this.table.push(this.makeRecord(node));
+		this.added.push(id);
+	};
+	/** remove node from the node table leaving the hole on its place */
+	this.removeNode=function(node)
+	{
+		var id=this.idOf(node);
+		if(id<0||this.table[id]==null)
+			return;
+		this.table[id]=null;
+		node._luwrainEpoch=undefined;
+		this.holes++;
+		this.removed.push(id);
+	};
+	/** apply one node touched by mutation records to the node table */
+	this.applyNode=function(node)
+	{
+		if(node._luwrainPass===this.pass)
+			return;
+		node._luwrainPass=this.pass;
+		var id=this.idOf(node);
+		if(!document.contains(node))
+		{
+			// the node is detached with its subtree
+			if(id<0)
+				return;
+			this.removeNode(node);
+			var lst=this.nodewalk(node,Infinity);
+			for(var i=0;i<lst.length;i++)
+				this.removeNode(lst[i]);
+			return;
+		}
+		if(id>=0)
+		{
+			// the node was moved or its content was modified
+			this.table[id]=this.makeRecord(node);
+			this.changed.push(id);
+			return;
+		}
+		// the parent could be skipped because of the node limit
+		var room=this.maxNodes-(this.table.length-this.holes);
+		if(room<=0||(node.parentNode!==document&&this.idOf(node.parentNode)<0))
+			return;
+		this.addNode(node);
+		var lst=this.nodewalk(node,room-1);
+		for(var i=0;i<lst.length;i++)
+			if(this.idOf(lst[i])<0)
+				this.addNode(lst[i]);
+	};
+	/** apply all collected mutation records to the node table, returns true if the table was modified */
+	this.applyMutations=function()
+	{
+		var records=this.mutations;
+		this.mutations=[];
+		if(records.length==0)
+			return false;
+		this.pass++;
+		var count=this.added.length+this.removed.length+this.changed.length;
+		var addedFrom=this.added.length;
+		var changedFrom=this.changed.length;
+		for(var i=0;i<records.length;i++)
+		{
+			var m=records[i];
+			if(m.type=='childList')
+			{
+				for(var k=0;k<m.removedNodes.length;k++)
+					this.applyNode(m.removedNodes[k]);
+				for(var k=0;k<m.addedNodes.length;k++)
+					this.applyNode(m.addedNodes[k]);
+				// the next sibling has got another previous sibling
+				if(m.nextSibling!=null)
+					this.applyNode(m.nextSibling);
+				continue;
+			}
+			// characterData and attributes
+			this.applyNode(m.target);
+		}
+		for(var i=addedFrom;i<this.added.length;i++)
+			this.linkRecord(this.table[this.added[i]]);
+		for(var i=changedFrom;i<this.changed.length;i++)
+			this.linkRecord(this.table[this.changed[i]]);
+		return this.added.length+this.removed.length+this.changed.length!=count;
+	};
+	/** check geometry of watched nodes which is not tracked by mutation records, returns true if anything is changed */
+	this.checkWatched=function()
+	{
+		var modified=false;
+		for(var i=0;i<this.watch.length;i++) if(this.watch[i] !== undefined)
+		{
+			var index=this.watch[i];
+			var rec=this.table[index];
+			if(rec === undefined||rec==null)
+				continue;
+			var u=this.getRect(rec.n);
+			var r=rec.r;
+			if(r==null||u==null)
+			{
+				if(r!=u)
+				{
+					rec.r=u;
+					this.changed.push(index);
+					modified=true;
+				}
+				continue;
+			}
+			if(r.top!=u.top||r.height!=u.height||r.left!=u.left||r.width!=u.width)
+			{ // visibility or position changed
+				rec.r=u;
+				this.changed.push(index);
+				modified=true;
+			}
+		}
+		return modified;
+	};
+	/** return and reset the list of modifications since the previous call:{epoch,seq,added,removed,changed} */
+	this.takeDelta=function()
+	{
+		var res={epoch:this.epoch,seq:this.seq,added:this.added,removed:this.removed,changed:this.changed};
+		this.added=[];
+		this.removed=[];
+		this.changed=[];
+		return res;
+	};
+	/** append numbers of the node table record to the packed array:id,parent_id,previous_sibling_id,left,top,width,height,hash */
+	this.packRecord=function(res,id)
+	{
+		var rec=this.table[id];
+		res.push(id,rec.p,rec.v);
+		if(rec.r!=null)
+			res.push(Math.round(rec.r.left)|0,Math.round(rec.r.top)|0,Math.round(rec.r.width)|0,Math.round(rec.r.height)|0); else
+			res.push(0,0,0,0);
+		res.push(rec.h|0);
+	};
+	/** calculate rectangles of the given nodes and pack them in one string: for each node the flag of presence and then left, top, width and height if the flag is 1
+	 * @param epoch the epoch of the node ids, nothing is returned if the table was rebuilt since that
+	 * @param ids comma-separated node ids */
+	this.exportRects=function(epoch,ids)
+	{
+		if(epoch!=this.epoch)
+			return '';
+		var lst=String(ids).split(',');
+		var res=[];
+		for(var i=0;i<lst.length;i++)
+		{
+			var rec=this.table[parseInt(lst[i])];
+			var r=rec!=null?this.getRect(rec.n):null;
+			if(r==null)
+			{
+				res.push(0);
+				continue;
+			}
+			res.push(1,Math.round(r.left)|0,Math.round(r.top)|0,Math.round(r.width)|0,Math.round(r.height)|0);
+		}
+		return res.join(',');
+	};
+	/** make the table of distinct strings for transferring to Java, every string is sent once and referenced by its index */
+	this.makeStringTable=function()
+	{
+		var strings=[];
+		var ids={};
+		return {
+			put:function(str)
+			{
+				str=str!=null?String(str):'';
+				// the prefix saves from names of Object.prototype members
+				var id=ids['_'+str];
+				if(id===undefined)
+				{
+					id=strings.length;
+					ids['_'+str]=id;
+					strings.push(str.replace(/\\/g,'\\\\').replace(/\n/g,'\\n').replace(/\r/g,'\\r'));
+				}
+				return id;
+			},
+			// the number of strings, the strings on separate lines with escaped line breaks and backslashes, and the given numbers on the last line
+			pack:function(numbers)
+			{
+				return strings.length+'\n'+(strings.length>0?strings.join('\n')+'\n':'')+numbers.join(',');
+			}
+		};
+	};
+	/** take values of configured style properties of the given nodes, text nodes get styles of their parents;
+	 * the result is the string table with indices of values for each property of each node
+	 * @param epoch the epoch of the node ids, nothing is returned if the table was rebuilt since that
+	 * @param ids comma-separated node ids */
+	this.exportStyles=function(epoch,ids)
+	{
+		if(epoch!=this.epoch)
+			return '';
+		var lst=String(ids).split(',');
+		var strings=this.makeStringTable();
+		var res=[];
+		for(var i=0;i<lst.length;i++)
+		{
+			var rec=this.table[parseInt(lst[i])];
+			var node=rec!=null?rec.n:null;
+			while(node!=null&&node.nodeType==3)
+				node=node.parentNode;
+			var style=node!=null&&node.nodeType==1?window.getComputedStyle(node,null):null;
+			for(var k=0;k<this.styleProperties.length;k++)
+				res.push(strings.put(style!=null?style.getPropertyValue(this.styleProperties[k]):''));
+		}
+		return strings.pack(res);
+	};
+	/** take attributes of the given nodes;
+	 * the result is the string table with the number of attributes and then indices of the name and the value of each attribute for each node
+	 * @param epoch the epoch of the node ids, nothing is returned if the table was rebuilt since that
+	 * @param ids comma-separated node ids */
+	this.exportAttrs=function(epoch,ids)
+	{
+		if(epoch!=this.epoch)
+			return '';
+		var lst=String(ids).split(',');
+		var strings=this.makeStringTable();
+		var res=[];
+		for(var i=0;i<lst.length;i++)
+		{
+			var rec=this.table[parseInt(lst[i])];
+			var attrs=rec!=null&&rec.n.nodeType==1?rec.n.attributes:null;
+			if(attrs==null)
+			{
+				res.push(0);
+				continue;
+			}
+			res.push(attrs.length);
+			for(var k=0;k<attrs.length;k++)
+				res.push(strings.put(attrs[k].name),strings.put(attrs[k].value));
+		}
+		return strings.pack(res);
+	};
+	/** take the beginnings of texts of the subtrees of the given nodes with collapsed spaces, for marking the parts of the page which are not taken by Java;
+	 * the result is the string table with the index of the text for each node
+	 * @param epoch the epoch of the node ids, nothing is returned if the table was rebuilt since that
+	 * @param ids comma-separated node ids
+	 * @param maxLength the greatest length of every text */
+	this.exportTexts=function(epoch,ids,maxLength)
+	{
+		if(epoch!=this.epoch)
+			return '';
+		var lst=String(ids).split(',');
+		var strings=this.makeStringTable();
+		var res=[];
+		for(var i=0;i<lst.length;i++)
+		{
+			var rec=this.table[parseInt(lst[i])];
+			var text=rec!=null&&rec.n.textContent!=null?rec.n.textContent:'';
+			// the spaces are collapsed only in the beginning, the rest of a long text is never needed
+			text=text.substring(0,maxLength*4).replace(/\s+/g,' ').trim();
+			res.push(strings.put(text.substring(0,maxLength)));
+		}
+		return strings.pack(res);
+	};
+	/** take the delta and pack it for transferring to Java in one string of comma-separated numbers:
+	 * epoch, seq, full flag, domLT and scanLT of the last modifying scan, count and ids of removed nodes, counts of added and changed records, then 8 numbers of each record;
+	 * nodes of added records are put to exportNodes in the same order, Java already has nodes of changed records
+	 * @param epoch the epoch of the Java scan result, the full table is packed if it differs from the current one */
+	this.exportDelta=function(epoch)
+	{
+		this.notified=false;
+		var full=epoch!=this.epoch;
+		var delta=this.takeDelta();
+		var removed=[];
+		var added=[];
+		var changed=[];
+		if(full)
+		{
+			for(var i=0;i<this.table.length;i++)
+				if(this.table[i]!=null)
+					added.push(i);
+		} else
+		{
+			var marks=[];
+			for(var i=0;i<delta.removed.length;i++)
+				removed.push(delta.removed[i]);
+			for(var i=0;i<delta.added.length;i++)
+			{
+				var id=delta.added[i];
+				if(this.table[id]!=null&&marks[id]!==true)
+				{
+					marks[id]=true;
+					added.push(id);
+				}
+			}
+			for(var i=0;i<delta.changed.length;i++)
+			{
+				var id=delta.changed[i];
+				if(this.table[id]!=null&&marks[id]!==true)
+				{
+					marks[id]=true;
+					changed.push(id);
+				}
+			}
+		}
+		var res=[this.epoch,this.seq,full?1:0,this.domLT|0,this.scanLT|0,removed.length];
+		for(var i=0;i<removed.length;i++)
+			res.push(removed[i]);
+		res.push(added.length,changed.length);
+		this.exportNodes=[];
+		for(var i=0;i<added.length;i++)
+		{
+			this.packRecord(res,added[i]);
+			this.exportNodes.push(this.table[added[i]].n);
+		}
+		for(var i=0;i<changed.length;i++)
+			this.packRecord(res,changed[i]);
+		return res.join(',');
+	};
+	/** start the mutation observer, returns false if the engine has no MutationObserver */
+	this.startObserver=function()
+	{
+		if(typeof MutationObserver==='undefined')
+			return false;
+		var that=this;
+		this.observer=new MutationObserver(function(records)
+		{
+			// a burst of modifications, no need to wait for the end of the long idle interval
+			if(!that.paused&&that.timerDue-new Date().getTime()>that.minTimeout)
+				that.schedule(that.minTimeout);
+			if(that.mutationsOverflow)
+				return;
+			if(that.mutations.length+records.length>that.maxMutations)
+			{
+				that.mutations=[];
+				that.mutationsOverflow=true;
+				return;
+			}
+			Array.prototype.push.apply(that.mutations,records);
+		});
+		this.observer.observe(document,{childList:true,subtree:true,characterData:true,attributes:true});
+		return true;
+	};
+	/** update the node table by collected mutation records, the full rescan is done only if there is no table yet or the table is too fragmented */
+	this.updateTable=function()
+	{
+		/**/var t=new Date().getTime();
+		var rebuild=this.epoch==0||this.mutationsOverflow;
+		var modified=false;
+		if(!rebuild)
+		{
+			modified=this.applyMutations();
+			if(this.checkWatched())
+				modified=true;
+			// the delta is not needed anymore if it is larger than the table itself, there will be a full update
+			if(this.holes*2>this.table.length||this.added.length+this.removed.length+this.changed.length>this.table.length)
+				rebuild=true;
+		}
+		if(rebuild)
+		{
+			this.mutations=[];
+			this.mutationsOverflow=false;
+			this.setTable(this.scanDOM());
+			modified=true;
+		} else
+			if(modified)
+				this.seq++;
+		/**/this.domLastLT=(new Date().getTime())-t;
+		if(modified)
+		{
+			this.domLastTime=new Date().getTime();
+			/**/this.domLT=this.domLastLT;
+			/**/this.scanLT=(new Date().getTime())-t;
+		}
+	};
+	/** compare full rescans, used only if there is no MutationObserver */
+	this.compareScans=function()
 	{
 		/**/var t=new Date().getTime();
 		this.domLast=this.scanDOM();
@@ -154,6 +610,16 @@ new function ()
 				}
 				var r=this.dom[index].r;
 				var u=this.domLast[index].r;
+				// no rectangles for unmeasurable nodes and in the lazy geometry mode
+				if(r==null||u==null)
+				{
+					if(r!=u)
+					{
+						modified=true;
+						break;
+					}
+					continue;
+				}
 				if(r.top!=u.top||r.height!=u.height||r.left!=u.left||r.width!=u.width)
 				{ // visibility or position changed
 					modified=true;
@@ -166,20 +632,68 @@ new function ()
 		if(modified)
 		{
 			this.dom=this.domLast;
+			this.setTable(this.dom.slice());
 			this.domLastTime=new Date().getTime();
 			this.countVisible=this.countVisibleLast;
 			/**/this.domLT=this.domLastLT;
 			/**/this.scanLT=(new Date().getTime())-t;
 		}
-		// set next time for rescan
-		this.timerid=setTimeout(function(that){that.onTimeout();},this.updateTimeout,this);
+	};
+	/** rescan the page immediately, the interval to the next rescan is doubled if there were no modifications and halved otherwise */
+	this.onTimeout=function()
+	{
+		this.timerid=null;
+		var seq=this.seq;
+		if(this.observer!=null)
+			this.updateTable(); else
+			this.compareScans();
+		if(this.seq!=seq)
+			this.updateTimeout=Math.max(this.minTimeout,Math.floor(this.updateTimeout/2)); else
+			this.updateTimeout=Math.min(this.maxTimeout,this.updateTimeout*2);
+		if(this.paused)
+			return;
+		if(this.seq!=seq)
+			this.notify();
+		this.schedule(this.updateTimeout);
+	};
+	/** tell Java about modifications, all following modifications are merged until Java takes the delta */
+	this.notify=function()
+	{
+		if(this.notified||window.luwrainNotifier===undefined)
+			return;
+		this.notified=true;
+		window.luwrainNotifier.onModified();
+	};
+	/** set the time of the next rescan replacing the already scheduled one */
+	this.schedule=function(timeout)
+	{
+		if(this.timerid!=null)
+			clearTimeout(this.timerid);
+		this.timerDue=new Date().getTime()+timeout;
+		this.timerid=setTimeout(function(that){that.onTimeout();},timeout,this);
+	};
+	/** stop or resume rescanning, the page is rescanned immediately on resuming */
+	this.setPaused=function(paused)
+	{
+		this.paused=paused==true;
+		if(this.paused)
+		{
+			if(this.timerid!=null)
+				clearTimeout(this.timerid);
+			this.timerid=null;
+			this.timerDue=0;
+			return;
+		}
+		this.updateTimeout=this.minTimeout;
+		this.onTimeout();
 	};
 	/** do update */
 	this.doUpdate=function()
 	{
-		clearTimeout(this.timerid);
-		this.timerid=setTimeout(function(that){that.onTimeout();},200,this);
+		this.schedule(200);
 	}
+	// observe modifications with MutationObserver if possible, otherwise compare full rescans
+	this.startObserver();
 	// start auto scanning via setTimeout as fast as possible after class object created
 	this.onTimeout();
 	//setTimeout(function(that){that.onTimeout();},1000,this);
@@ -0,0 +1,70 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.browser;
+
+import org.junit.*;
+
+public class BrowserMetricsTest extends Assert
+{
+    @Test public void percentiles()
+    {
+	final BrowserMetrics m = new BrowserMetrics();
+	assertEquals(0, m.getPercentile(BrowserMetrics.Type.UPDATE, 50));
+	for(int i = 100;i >= 1;i--)
+	    m.add(BrowserMetrics.Type.UPDATE, i);
+	assertEquals(100, m.getCount(BrowserMetrics.Type.UPDATE));
+	assertEquals(1, m.getLast(BrowserMetrics.Type.UPDATE));
+	assertEquals(1, m.getPercentile(BrowserMetrics.Type.UPDATE, 0));
+	assertEquals(50, m.getPercentile(BrowserMetrics.Type.UPDATE, 50));
+	assertEquals(95, m.getPercentile(BrowserMetrics.Type.UPDATE, 95));
+	assertEquals(100, m.getPercentile(BrowserMetrics.Type.UPDATE, 100));
+	assertEquals(0, m.getCount(BrowserMetrics.Type.MODEL_BUILD));
+    }
+
+    @Test public void window()
+    {
+	final BrowserMetrics m = new BrowserMetrics();
+	for(int i = 0;i < BrowserMetrics.WINDOW_SIZE;i++)
+	    m.add(BrowserMetrics.Type.MODEL_BUILD, 1000);
+	for(int i = 0;i < BrowserMetrics.WINDOW_SIZE;i++)
+	    m.add(BrowserMetrics.Type.MODEL_BUILD, 1);
+	assertEquals(2 * BrowserMetrics.WINDOW_SIZE, m.getCount(BrowserMetrics.Type.MODEL_BUILD));
+	assertEquals(1, m.getPercentile(BrowserMetrics.Type.MODEL_BUILD, 100));
+    }
+
+    @Test public void negative()
+    {
+	final BrowserMetrics m = new BrowserMetrics();
+	m.add(BrowserMetrics.Type.INJECTION_SCAN, 7);
+	m.add(BrowserMetrics.Type.INJECTION_SCAN, -1000);
+	assertEquals(1, m.getCount(BrowserMetrics.Type.INJECTION_SCAN));
+	assertEquals(7, m.getLast(BrowserMetrics.Type.INJECTION_SCAN));
+    }
+
+    @Test public void reset()
+    {
+	final BrowserMetrics m = new BrowserMetrics();
+	m.add(BrowserMetrics.Type.INJECTION_DOM, 5);
+	m.setNodeCount(10);
+	m.addBridgeCalls(3);
+	m.reset();
+	assertEquals(0, m.getCount(BrowserMetrics.Type.INJECTION_DOM));
+	assertEquals(0, m.getLast(BrowserMetrics.Type.INJECTION_DOM));
+	assertEquals(0, m.getNodeCount());
+	assertEquals(0, m.getBridgeCallCount());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.browser;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class NodeIndexTest extends Assert
+{
+    @Test public void putGetRemove()
+    {
+	final NodeIndex index = new NodeIndex();
+	final Object[] keys = new Object[1000];
+	for(int i = 0;i < keys.length;i++)
+	{
+	    keys[i] = new Object();
+	    index.put(keys[i], i);
+	}
+	assertEquals(keys.length, index.size());
+	for(int i = 0;i < keys.length;i++)
+	    assertEquals(i, index.get(keys[i]));
+	for(int i = 0;i < keys.length;i += 2)
+	    index.remove(keys[i]);
+	assertEquals(keys.length / 2, index.size());
+	for(int i = 0;i < keys.length;i++)
+	    assertEquals(i % 2 == 0?-1:i, index.get(keys[i]));
+	assertEquals(-1, index.get(new Object()));
+	assertEquals(-1, index.get(null));
+    }
+
+    @Test public void identity()
+    {
+	final NodeIndex index = new NodeIndex();
+	final String a = new String("key");
+	final String b = new String("key");
+	index.put(a, 1);
+	assertEquals(1, index.get(a));
+	assertEquals(-1, index.get(b));
+	index.put(a, 2);
+	assertEquals(2, index.get(a));
+	assertEquals(1, index.size());
+    }
+
+    @Test public void randomized()
+    {
+	final Random rand = new Random(1);
+	final NodeIndex index = new NodeIndex();
+	final IdentityHashMap<Object, Integer> expected = new IdentityHashMap();
+	final List<Object> keys = new ArrayList();
+	for(int i = 0;i < 200;i++)
+	    keys.add(new Object());
+	for(int step = 0;step < 20000;step++)
+	{
+	    final Object key = keys.get(rand.nextInt(keys.size()));
+	    if (rand.nextBoolean())
+	    {
+		index.put(key, step);
+		expected.put(key, step);
+	    } else
+	    {
+		index.remove(key);
+		expected.remove(key);
+	    }
+	}
+	assertEquals(expected.size(), index.size());
+	for(Object key: keys)
+	    assertEquals(expected.containsKey(key)?expected.get(key).intValue():-1, index.get(key));
+    }
+}
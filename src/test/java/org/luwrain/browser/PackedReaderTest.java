@@ -0,0 +1,46 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.browser;
+
+import org.junit.*;
+
+public class PackedReaderTest extends Assert
+{
+    @Test public void numbers()
+    {
+	final PackedReader r = new PackedReader("1,-1,0,4294967295,-2147483648");
+	assertEquals(1, r.nextInt());
+	assertEquals(-1, r.nextInt());
+	assertEquals(0, r.nextInt());
+	assertEquals(4294967295L, r.nextLong());
+	assertEquals(Integer.MIN_VALUE, r.nextInt());
+	assertFalse(r.hasNext());
+    }
+
+    @Test public void empty()
+    {
+	final PackedReader r = new PackedReader("");
+	assertFalse(r.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void badChar()
+    {
+	final PackedReader r = new PackedReader("12,1.5");
+	r.nextInt();
+	r.nextInt();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.browser;
+
+import java.text.Normalizer;
+
+import org.junit.*;
+
+public class TextNormalizerTest extends Assert
+{
+    @Test public void spaces()
+    {
+	final TextNormalizer n = TextNormalizer.DEFAULT;
+	assertEquals(" a b ", n.normalize("  a \n\t b\r\n"));
+	assertEquals("a b", n.normalize("a\u0000b"));
+	assertEquals("", n.normalize(""));
+	assertEquals(" ", n.normalize("\n\n\n"));
+    }
+
+    @Test public void unchanged()
+    {
+	final String text = " already normal text ";
+	assertSame(text, TextNormalizer.DEFAULT.normalize(text));
+    }
+
+    @Test public void unicode()
+    {
+	final String decomposed = "é  x";
+	assertEquals("é x", TextNormalizer.DEFAULT.normalize(decomposed));
+	assertEquals("é x", new TextNormalizer(Normalizer.Form.NFC).normalize(decomposed));
+    }
+}
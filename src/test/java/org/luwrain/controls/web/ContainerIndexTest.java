@@ -0,0 +1,87 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.controls.web;
+
+import java.util.*;
+import java.awt.Rectangle;
+
+import org.junit.*;
+
+import org.luwrain.browser.*;
+
+public class ContainerIndexTest extends Assert
+{
+    @Test public void lines()
+    {
+	final Container c1 = container(0, 0, 100, 20);
+	final Container c2 = container(100, 0, 100, 40);
+	final Container c3 = container(0, 20, 100, 20);
+	final Container c4 = container(0, 40, 200, 0);
+	final Container c5 = container(50, 60, 20, 20);
+	final ContainerIndex index = new ContainerIndex(new Container[]{c1, c2, c3, c4, c5});
+	assertArrayEquals(new Container[]{c1, c2}, index.getOnLine(10));
+	assertArrayEquals(new Container[]{c3, c2}, index.getOnLine(20));
+	assertArrayEquals(new Container[]{c4}, index.getOnLine(40));
+	assertEquals(0, index.getOnLine(50).length);
+	assertEquals(0, index.getOnLine(-10).length);
+	assertEquals(0, index.getOnLine(1000).length);
+	assertSame(c2, index.getNextRight(c1));
+	assertSame(c2, index.getNextRight(c3));
+	assertNull(index.getNextRight(c2));
+	assertSame(c3, index.getNextBelow(c1));
+	assertSame(c4, index.getNextBelow(c3));
+	assertSame(c5, index.getNextBelow(c4));
+	assertNull(index.getNextBelow(c5));
+	assertArrayEquals(new Container[]{c1, c2, c3}, index.getIntersecting(container(90, 15, 20, 30)));
+	assertArrayEquals(new Container[]{c5}, index.getIntersecting(container(60, 70, 0, 0)));
+    }
+
+    @Test public void matchesPairs()
+    {
+	final Random rand = new Random(24);
+	final Container[] containers = new Container[2000];
+	for(int i = 0;i < containers.length;i++)
+	    containers[i] = container(rand.nextInt(1000), rand.nextInt(20000), rand.nextInt(4) == 0?0:rand.nextInt(300), rand.nextInt(4) == 0?0:rand.nextInt(60));
+	final ContainerIndex index = new ContainerIndex(containers);
+	for(int i = 0;i < containers.length;i += 7)
+	{
+	    final List<Container> expected = new ArrayList<>();
+	    for(Container c: containers)
+		if (c != containers[i] && containers[i].intersectsGraphically(c))
+		    expected.add(c);
+	    assertEquals(expected, Arrays.asList(index.getIntersecting(containers[i])));
+	}
+	for(int y = 0;y < 20000;y += 97)
+	{
+	    int count = 0;
+	    for(Container c: containers)
+		if (c.height == 0?c.y == y:(y >= c.y && y < c.y + c.height))
+		    count++;
+	    assertEquals(count, index.getOnLine(y).length);
+	}
+    }
+
+    static private Container container(int x, int y, int width, int height)
+    {
+	final PageSnapshot.Node node = new PageSnapshot.Node(null, 0, -1, NodeKind.PARAGRAPH, "p", new HashMap<>(), false, true, "", new Rectangle(x, y, width, height));
+	return new Container(node, new TreeItem(){
+		@Override public TreeItem getParentItem() { return null; }
+		@Override public TreeItem[] getChildren() { return new TreeItem[0]; }
+		@Override public Map<String, String> getItemAttrs() { return new HashMap<>(); }
+	    }, new ContentItem[0]);
+    }
+}
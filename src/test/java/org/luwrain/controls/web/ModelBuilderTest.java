@@ -0,0 +1,148 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.controls.web;
+
+import java.util.*;
+import java.awt.Rectangle;
+
+import org.junit.*;
+
+import org.luwrain.browser.*;
+
+public class ModelBuilderTest extends Assert
+{
+    @Test public void recorded() throws Exception
+    {
+	final Map<String, String> href = new HashMap<>();
+	href.put("href", "http://luwrain.org/");
+	final PageSnapshot snapshot = new PageSnapshot(new PageSnapshot.Node[]{
+		node(0, -1, NodeKind.OTHER, "html", false, false, "", null),
+		node(1, 0, NodeKind.OTHER, "body", false, false, "", null),
+		node(2, 1, NodeKind.PARAGRAPH, "p", false, false, "", new Rectangle(0, 0, 100, 20)),
+		node(3, 2, NodeKind.TEXT, "", true, true, "Hello world", new Rectangle(0, 0, 50, 20)),
+		new PageSnapshot.Node(null, 6, 2, NodeKind.ANCHOR, "a", href, true, true, "", new Rectangle(50, 0, 50, 20)),
+		node(7, 6, NodeKind.TEXT, "", true, true, "link", new Rectangle(50, 0, 50, 20)),
+		node(8, 2, NodeKind.TEXT, "", true, false, "hidden", null),
+		node(4, 1, NodeKind.SCRIPT, "script", false, false, "", new Rectangle(0, 0, 10, 10)),
+		node(5, 4, NodeKind.TEXT, "", true, true, "code", new Rectangle(0, 0, 10, 10)),
+	    });
+	final Container[] res = new ModelBuilder(new RecordedPageSource(snapshot)).build();
+	assertEquals(1, res.length);
+	assertEquals(Container.Type.PARA, res[0].type);
+	assertEquals(100, res[0].width);
+	final ContentItem[] content = res[0].getContent();
+	assertEquals(2, content.length);
+	assertEquals("Hello world", content[0].getText());
+	assertEquals("", content[0].href);
+	assertEquals("http://luwrain.org/", content[1].href);
+	assertEquals("http://luwrain.org/", content[1].children[0].href);
+	assertEquals("link", content[1].children[0].getText());
+	final String n = System.lineSeparator();
+	assertEquals("<p>" + n + "Hello world" + n + "<a" + n + "  href=http://luwrain.org/>" + n + "link" + n + "</a>" + n + "hidden" + n + "</p>", res[0].treeItem.toString());
+    }
+
+    @Test public void deep() throws Exception
+    {
+	final int depth = 100000;
+	final Map<String, String> href = new HashMap<>();
+	href.put("href", "/deep");
+	final List<PageSnapshot.Node> nodes = new ArrayList<>();
+	nodes.add(node(0, -1, NodeKind.OTHER, "body", false, false, "", null));
+	nodes.add(new PageSnapshot.Node(null, 1, 0, NodeKind.ANCHOR, "a", href, false, false, "", null));
+	nodes.add(node(2, 1, NodeKind.PARAGRAPH, "p", false, false, "", null));
+	for(int i = 0;i < depth;i++)
+	    nodes.add(node(3 + i, 2 + i, NodeKind.ELEMENT, "span", true, true, "", null));
+	nodes.add(node(3 + depth, 2 + depth, NodeKind.TEXT, "", true, true, "bottom", null));
+	final Container[] res = new ModelBuilder(new RecordedPageSource(new PageSnapshot(nodes.toArray(new PageSnapshot.Node[nodes.size()])))).build();
+	assertEquals(1, res.length);
+	ContentItem c = res[0].getContent()[0];
+	for(int i = 0;i < depth;i++)
+	{
+	    assertEquals("/deep", c.href);
+	    c = c.children[0];
+	}
+	assertEquals("bottom", c.getText());
+	assertTrue(res[0].treeItem.toString().endsWith("</span>" + System.lineSeparator() + "</p>"));
+    }
+
+    @Test public void portions() throws Exception
+    {
+	final List<PageSnapshot.Node> nodes = new ArrayList<>();
+	nodes.add(node(0, -1, NodeKind.OTHER, "body", false, false, "", null));
+	for(int i = 0;i < 100;i++)
+	{
+	    nodes.add(node(1 + 2 * i, 0, NodeKind.PARAGRAPH, "p", false, false, "", null));
+	    nodes.add(node(2 + 2 * i, 1 + 2 * i, NodeKind.TEXT, "", true, true, "text" + i, null));
+	}
+	final List<Integer> sizes = new ArrayList<>();
+	final Container[] res = new ModelBuilder(new RecordedPageSource(new PageSnapshot(nodes.toArray(new PageSnapshot.Node[nodes.size()])))).build((containers, complete)->{
+		sizes.add(complete?-containers.length:containers.length);
+		return true;
+	    });
+	assertEquals(100, res.length);
+	assertEquals(Arrays.asList(32, 64, -100), sizes);
+	assertEquals("text0", res[0].getContent()[0].getText());
+	assertNull(new ModelBuilder(new RecordedPageSource(new PageSnapshot(nodes.toArray(new PageSnapshot.Node[nodes.size()])))).build((containers, complete)->false));
+    }
+
+    @Test public void sameContent() throws Exception
+    {
+	final Container[] res1 = new ModelBuilder(new RecordedPageSource(paragraph("text"))).build();
+	final Container[] res2 = new ModelBuilder(new RecordedPageSource(paragraph("text"))).build();
+	final Container[] res3 = new ModelBuilder(new RecordedPageSource(paragraph("other"))).build();
+	assertNotSame(res1[0], res2[0]);
+	assertTrue(res1[0].hasSameContent(res2[0]));
+	assertFalse(res1[0].hasSameContent(res3[0]));
+    }
+
+    @Test public void placeholders() throws Exception
+    {
+	final Container[] res = new ModelBuilder(new RecordedPageSource(new PageSnapshot(new PageSnapshot.Node[]{
+			node(0, -1, NodeKind.OTHER, "body", false, false, "", null),
+			new PageSnapshot.Node(null, 5, 0, NodeKind.ELEMENT, "div", new HashMap<>(), false, true, true, "above", new Rectangle(0, 0, 100, 1000)),
+			node(1, 0, NodeKind.PARAGRAPH, "p", false, false, "", new Rectangle(0, 1000, 100, 20)),
+			node(2, 1, NodeKind.TEXT, "", true, true, "text", null),
+			new PageSnapshot.Node(null, 6, 0, NodeKind.LIST_ITEM, "li", new HashMap<>(), false, true, true, "", new Rectangle(0, 1020, 100, 3000)),
+		    }))).build();
+	assertEquals(3, res.length);
+	assertTrue(res[0].placeholder);
+	assertEquals(5, res[0].pos);
+	assertEquals(1000, res[0].height);
+	assertEquals("above", res[0].getContent()[0].getText());
+	assertFalse(res[1].placeholder);
+	assertEquals("text", res[1].getContent()[0].getText());
+	assertTrue(res[2].placeholder);
+	assertEquals(Container.Type.LIST_ITEM, res[2].type);
+	assertEquals(1, res[2].getContent().length);
+	assertFalse(res[0].hasSameContent(res[1]));
+    }
+
+    static private PageSnapshot paragraph(String text)
+    {
+	return new PageSnapshot(new PageSnapshot.Node[]{
+		node(0, -1, NodeKind.OTHER, "body", false, false, "", null),
+		node(1, 0, NodeKind.PARAGRAPH, "p", false, false, "", new Rectangle(0, 0, 100, 20)),
+		node(2, 1, NodeKind.ELEMENT, "span", true, true, "", null),
+		node(3, 2, NodeKind.TEXT, "", true, true, text, null),
+	    });
+    }
+
+    static private PageSnapshot.Node node(int pos, int parentPos, NodeKind kind, String tagName, boolean content, boolean visible, String text, Rectangle rect)
+    {
+	return new PageSnapshot.Node(null, pos, parentPos, kind, tagName, new HashMap<>(), content, visible, text, rect);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+   Copyright 2012-2021 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.controls.web;
+
+import java.util.*;
+import java.io.*;
+import java.awt.Rectangle;
+import java.nio.*;
+
+import org.junit.*;
+
+import org.luwrain.browser.*;
+
+public class SnapshotFormatTest extends Assert
+{
+    @Test public void roundTrip() throws IOException
+    {
+	final Map<String, String> attrs = new LinkedHashMap<>();
+	attrs.put("href", "http://luwrain.org/");
+	attrs.put("title", "Привет\n");
+	final PageSnapshot snapshot = new PageSnapshot(new PageSnapshot.Node[]{
+		new PageSnapshot.Node(null, 3, -1, NodeKind.ELEMENT, "html", new HashMap<>(), false, false, "", null),
+		new PageSnapshot.Node(null, 0, 3, NodeKind.PARAGRAPH, "p", new HashMap<>(), false, false, "", new Rectangle(0, 0, 100, 20)),
+		new PageSnapshot.Node(null, 7, 0, NodeKind.ANCHOR, "a", attrs, true, true, "link", new Rectangle(1, 2, 30, 10)),
+		new PageSnapshot.Node(null, 8, 3, NodeKind.ELEMENT, "div", new HashMap<>(), false, true, true, "below", new Rectangle(0, 900, 100, 5000)),
+	    });
+	final PageSnapshot res = SnapshotReader.read(ByteBuffer.wrap(write(snapshot)));
+	assertArrayEquals(new int[]{3, 0, 7, 8}, res.getOrder());
+	assertEquals(9, res.getCapacity());
+	final PageSnapshot.Node a = res.get(7);
+	assertNull(a.it);
+	assertEquals(0, a.parentPos);
+	assertEquals(NodeKind.ANCHOR, a.kind);
+	assertEquals("a", a.tagName);
+	assertEquals("link", a.text);
+	assertTrue(a.content);
+	assertTrue(a.visible);
+	assertTrue(a.rectKnown);
+	assertFalse(a.placeholder);
+	assertEquals(30, a.width);
+	assertEquals(attrs, a.attrs);
+	assertFalse(res.get(3).rectKnown);
+	assertEquals(-1, res.get(3).parentPos);
+	assertEquals(NodeKind.PARAGRAPH, res.get(0).kind);
+	assertTrue(res.get(8).placeholder);
+	assertEquals("below", res.get(8).text);
+	assertEquals(5000, res.get(8).height);
+    }
+
+    @Test public void file() throws IOException
+    {
+	final PageSnapshot snapshot = new PageSnapshot(new PageSnapshot.Node[]{
+		new PageSnapshot.Node(null, 0, -1, NodeKind.TEXT, "", new HashMap<>(), true, true, "text", null),
+	    });
+	final File file = File.createTempFile("luwrain-test", ".snapshot");
+	try {
+	    SnapshotWriter.write(snapshot, file);
+	    final PageSnapshot res = SnapshotReader.read(file);
+	    assertEquals(1, res.getNodeCount());
+	    assertEquals("text", res.get(0).text);
+	}
+	finally {
+	    file.delete();
+	}
+    }
+
+    @Test(expected = IOException.class) public void truncated() throws IOException
+    {
+	final PageSnapshot snapshot = new PageSnapshot(new PageSnapshot.Node[]{
+		new PageSnapshot.Node(null, 0, -1, NodeKind.TEXT, "", new HashMap<>(), true, true, "text", null),
+	    });
+	final byte[] bytes = write(snapshot);
+	SnapshotReader.read(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 1)));
+    }
+
+    @Test(expected = IOException.class) public void hugeCount() throws IOException
+    {
+	final PageSnapshot snapshot = new PageSnapshot(new PageSnapshot.Node[]{
+		new PageSnapshot.Node(null, 0, -1, NodeKind.TEXT, "", new HashMap<>(), true, true, "text", null),
+	    });
+	final ByteBuffer buf = ByteBuffer.wrap(write(snapshot));
+	//The number of strings right after the signature and the version
+	buf.putInt(6, Integer.MAX_VALUE);
+	SnapshotReader.read(buf);
+    }
+
+    @Test(expected = IOException.class) public void badMagic() throws IOException
+    {
+	SnapshotReader.read(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 0, 1}));
+    }
+
+    static private byte[] write(PageSnapshot snapshot) throws IOException
+    {
+	final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	SnapshotWriter.write(snapshot, new DataOutputStream(bytes));
+	return bytes.toByteArray();
+    }
+}